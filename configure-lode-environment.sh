@@ -8,9 +8,50 @@ fi
 
 echo "Populating the LODE properties file at '${LODE_CONFIG}'"
 cat <<EOF > "${LODE_CONFIG}"
+circuitBreakerCooldown=${CIRCUIT_BREAKER_COOLDOWN:-60}
+circuitBreakerFailures=${CIRCUIT_BREAKER_FAILURES:-5}
+closureMaxBytes=${CLOSURE_MAX_BYTES:-16777216}
+connectTimeout=${CONNECT_TIMEOUT:-10}
 defaultLang=${DEFAULT_LANG:-en}
 externalURL=${LODE_EXTERNAL_URL:-}
+fetchCacheDirectory=${FETCH_CACHE_DIRECTORY:-}
+fetchCacheMaxDiskBytes=${FETCH_CACHE_MAX_DISK_BYTES:-1073741824}
+importsCacheDirectory=${IMPORTS_CACHE_DIRECTORY:-}
+importsCacheMaxDiskBytes=${IMPORTS_CACHE_MAX_DISK_BYTES:-268435456}
+importsCacheTtl=${IMPORTS_CACHE_TTL:-86400}
+importsPerHost=${IMPORTS_PER_HOST:-4}
+importTimeout=${IMPORT_TIMEOUT:-30}
+inferenceCacheDirectory=${INFERENCE_CACHE_DIRECTORY:-}
+inferenceCacheMaxDiskBytes=${INFERENCE_CACHE_MAX_DISK_BYTES:-1073741824}
+lazyEntities=${LAZY_ENTITIES:-5000}
+lazyPageSize=${LAZY_PAGE_SIZE:-200}
+maxSourceBytes=${MAX_SOURCE_BYTES:-134217728}
 maxTentative=${MAX_TENTATIVE:-3}
+negativeCacheTtl=${NEGATIVE_CACHE_TTL:-60}
+owlapiMaxBytes=${OWLAPI_MAX_BYTES:-67108864}
+owlapiRenderThreads=${OWLAPI_RENDER_THREADS:-$(( $(nproc) > 1 ? $(nproc) / 2 : 1 ))}
+parallelReasoning=${PARALLEL_REASONING:-false}
+prerender=${PRERENDER:-}
+prerenderInterval=${PRERENDER_INTERVAL:-900}
+prerenderJitter=${PRERENDER_JITTER:-60}
+prerenderThreads=${PRERENDER_THREADS:-1}
+readTimeout=${READ_TIMEOUT:-30}
+reasonerMaxAxioms=${REASONER_MAX_AXIOMS:-200000}
+reasonerMaxBytes=${REASONER_MAX_BYTES:-8388608}
+reasonerThreads=${REASONER_THREADS:-$(nproc)}
+reasonerTimeout=${REASONER_TIMEOUT:-60}
+renderCacheDirectory=${RENDER_CACHE_DIRECTORY:-}
+renderCacheMaxBytes=${RENDER_CACHE_MAX_BYTES:-67108864}
+renderCacheMaxDiskBytes=${RENDER_CACHE_MAX_DISK_BYTES:-1073741824}
+renderCacheTtl=${RENDER_CACHE_TTL:-86400}
+renderQueueLength=${RENDER_QUEUE_LENGTH:-50}
+renderThreads=${RENDER_THREADS:-$(nproc)}
+renderTimeout=${RENDER_TIMEOUT:-120}
+retryAfter=${RETRY_AFTER:-30}
+retryBackoff=${RETRY_BACKOFF:-500}
+sharedPageMaxBytes=${SHARED_PAGE_MAX_BYTES:-16777216}
+slowRenderThreshold=${SLOW_RENDER_THRESHOLD:-30}
+treeCacheMaxBytes=${TREE_CACHE_MAX_BYTES:-268435456}
 vendorCss=${VENDOR_CSS:-}
 vendorName=${VENDOR_NAME:-}
 vendorUrl=${VENDOR_URL:-}
@@ -0,0 +1,107 @@
+package it.essepuntato.lode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * The ontologies the benchmarks run on: the two samples shipped with the
+ * project, named after their file, and synthetic ontologies, named after the
+ * number of axioms they contain.
+ */
+public final class Corpus {
+
+	/**
+	 * The ontology every synthetic ontology imports when it is given an
+	 * import IRI.
+	 */
+	public static final int IMPORTED_AXIOMS = 1000;
+
+	private Corpus() {
+	}
+
+	/**
+	 * The root of the project, passed by the benchmarks profile.
+	 */
+	public static File getProjectDirectory() {
+		return new File(System.getProperty("lode.project", System.getProperty("user.dir")));
+	}
+
+	public static LODEConfiguration getConfiguration() {
+		return LODEConfiguration.getInstance(new File(getProjectDirectory(), "src/main/webapp").getAbsolutePath(),
+				"/lode");
+	}
+
+	/**
+	 * @param importIRI
+	 *            the ontology imported by a synthetic ontology, or null
+	 */
+	public static OntologySource load(String name, String importIRI) throws IOException {
+		if (name.equals("test.owl")) {
+			return read(new File(getProjectDirectory(), "test/cpannotationschema/test.owl"), "application/rdf+xml");
+		} else if (name.equals("proms.ttl")) {
+			return read(new File(getProjectDirectory(), "proms.ttl"), "text/turtle");
+		}
+		byte[] data = synthetic(Integer.parseInt(name), "http://example.org/synthetic/" + name, importIRI);
+		return new OntologySource(data, data.length, "application/rdf+xml");
+	}
+
+	private static OntologySource read(File file, String contentType) throws IOException {
+		byte[] data = Files.readAllBytes(file.toPath());
+		return new OntologySource(data, data.length, contentType);
+	}
+
+	/**
+	 * Generates an RDF/XML ontology of (about) the given number of axioms: a
+	 * class hierarchy with labels and comments, with a property every ten
+	 * classes and an individual every five.
+	 */
+	public static byte[] synthetic(int axioms, String ontologyIRI, String importIRI) {
+		StringBuilder rdf = new StringBuilder(axioms * 120);
+		rdf.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		rdf.append("<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"\n");
+		rdf.append("    xmlns:rdfs=\"http://www.w3.org/2000/01/rdf-schema#\"\n");
+		rdf.append("    xmlns:owl=\"http://www.w3.org/2002/07/owl#\"\n");
+		rdf.append("    xml:base=\"").append(ontologyIRI).append("\">\n");
+		rdf.append("  <owl:Ontology rdf:about=\"").append(ontologyIRI).append("\">\n");
+		rdf.append("    <rdfs:label>Synthetic ontology of ").append(axioms).append(" axioms</rdfs:label>\n");
+		if (importIRI != null) {
+			rdf.append("    <owl:imports rdf:resource=\"").append(importIRI).append("\"/>\n");
+		}
+		rdf.append("  </owl:Ontology>\n");
+
+		String ns = ontologyIRI + "#";
+		int count = 0;
+		for (int i = 0; count < axioms; i++) {
+			rdf.append("  <owl:Class rdf:about=\"").append(ns).append("C").append(i).append("\">\n");
+			rdf.append("    <rdfs:label>Class ").append(i).append("</rdfs:label>\n");
+			rdf.append("    <rdfs:comment>The class number ").append(i)
+					.append(" of the synthetic hierarchy.</rdfs:comment>\n");
+			if (i > 0) {
+				rdf.append("    <rdfs:subClassOf rdf:resource=\"").append(ns).append("C").append((i - 1) / 4)
+						.append("\"/>\n");
+			}
+			rdf.append("  </owl:Class>\n");
+			count += 4;
+
+			if (i % 10 == 0) {
+				rdf.append("  <owl:ObjectProperty rdf:about=\"").append(ns).append("p").append(i).append("\">\n");
+				rdf.append("    <rdfs:label>property ").append(i).append("</rdfs:label>\n");
+				rdf.append("    <rdfs:domain rdf:resource=\"").append(ns).append("C").append(i).append("\"/>\n");
+				rdf.append("    <rdfs:range rdf:resource=\"").append(ns).append("C").append(i / 2).append("\"/>\n");
+				rdf.append("  </owl:ObjectProperty>\n");
+				count += 4;
+			}
+			if (i % 5 == 0) {
+				rdf.append("  <owl:NamedIndividual rdf:about=\"").append(ns).append("i").append(i).append("\">\n");
+				rdf.append("    <rdf:type rdf:resource=\"").append(ns).append("C").append(i).append("\"/>\n");
+				rdf.append("    <rdfs:label>individual ").append(i).append("</rdfs:label>\n");
+				rdf.append("  </owl:NamedIndividual>\n");
+				count += 3;
+			}
+		}
+		rdf.append("</rdf:RDF>\n");
+		return rdf.toString().getBytes(StandardCharsets.UTF_8);
+	}
+}
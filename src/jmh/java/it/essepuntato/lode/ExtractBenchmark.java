@@ -0,0 +1,55 @@
+package it.essepuntato.lode;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Downloads the source with {@link SourceExtractor#exec(URL)}, from a local
+ * server and without the fetch cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ExtractBenchmark {
+
+	@Param({ "test.owl", "proms.ttl", "1000", "10000", "100000", "500000" })
+	public String ontology;
+
+	private StubServer server;
+	private URL url;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.server = new StubServer();
+		this.url = new URL(this.server.publish("/ontology", Corpus.load(this.ontology, null)));
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.server.stop();
+	}
+
+	@Benchmark
+	public OntologySource exec() throws IOException {
+		SourceExtractor extractor = new SourceExtractor();
+		extractor.addMimeTypes(MimeType.mimeTypes);
+		return extractor.exec(this.url);
+	}
+}
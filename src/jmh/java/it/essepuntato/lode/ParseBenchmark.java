@@ -0,0 +1,72 @@
+package it.essepuntato.lode;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+
+/**
+ * Loads the source with {@link Renderer#parseWithOWLAPI}, with or without
+ * merging its imports closure.
+ *
+ * The synthetic ontologies import a small synthetic ontology published by a
+ * local server; the imports of the samples are those they declare. Either
+ * way the imports are downloaded once into the imports cache, during the
+ * warmup, as happens on a running server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+public class ParseBenchmark {
+
+	@Param({ "test.owl", "proms.ttl", "1000", "10000", "100000", "500000" })
+	public String ontology;
+
+	@Param({ "false", "true" })
+	public boolean imports;
+
+	private StubServer server;
+	private Renderer renderer;
+	private OntologySource source;
+	private URL url;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.server = new StubServer();
+		byte[] imported = Corpus.synthetic(Corpus.IMPORTED_AXIOMS, "http://example.org/synthetic/imported", null);
+		String importIRI = this.server.publish("/imported.owl",
+				new OntologySource(imported, imported.length, "application/rdf+xml"));
+		this.source = Corpus.load(this.ontology, importIRI);
+		this.url = new URL(this.server.publish("/ontology", this.source));
+		this.renderer = new Renderer(Corpus.getConfiguration());
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.server.stop();
+	}
+
+	@Benchmark
+	public OWLOntology parseWithOWLAPI() throws OWLOntologyCreationException {
+		return this.renderer.parseWithOWLAPI(this.url, this.source, true, false, this.imports, false,
+				Inference.parse(null), new ArrayList<String>());
+	}
+}
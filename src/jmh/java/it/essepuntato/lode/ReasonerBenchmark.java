@@ -0,0 +1,86 @@
+package it.essepuntato.lode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.TransformerException;
+
+import net.sf.saxon.om.NodeInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+
+/**
+ * Documents an ontology with the reasoner through {@link Renderer#parseTree},
+ * the path of the extract service: OWLAPI load, Pellet, RDF/XML and the tree
+ * the stylesheet runs on, with {@link SizeBudget} deciding between a single
+ * reasoner and a reasoner per family of inferences from the reasonerThreads
+ * and parallelReasoning options, as it does on a server.
+ *
+ * All the inferences are generated, so that a reasoner per family means three
+ * of them; with a single reasoner thread the parallelReasoning option has no
+ * effect, which makes those runs a control. The ontologies are synthetic ones
+ * published by a local server, so that nothing depends on the network; from
+ * about 8000 axioms on Pellet does not finish within the reasoner timeout. The
+ * tree cache is disabled, so that every invocation parses and reasons again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 3, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 5, time = 10)
+@Measurement(iterations = 10, time = 10)
+public class ReasonerBenchmark {
+
+	@Param({ "2000", "6000" })
+	public String ontology;
+
+	@Param({ "1", "3" })
+	public int reasonerThreads;
+
+	@Param({ "false", "true" })
+	public boolean parallelReasoning;
+
+	private StubServer server;
+	private Renderer renderer;
+	private OntologySource source;
+	private RenderRequest request;
+
+	@Setup
+	public void setUp() throws IOException {
+		LODEConfiguration conf = Corpus.getConfiguration();
+		conf.setReasonerThreads(this.reasonerThreads);
+		conf.setParallelReasoning(this.parallelReasoning);
+		conf.setTreeCacheMaxBytes(0);
+		RenderExecutor.shutdown();
+		RenderExecutor.getInstance(conf);
+		this.server = new StubServer();
+		this.source = Corpus.load(this.ontology, null);
+		this.request = new RenderRequest(this.server.publish("/ontology", this.source), true, false, false, true,
+				Inference.parse(null), conf.getDefaultLang());
+		this.renderer = new Renderer(conf);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.server.stop();
+		RenderExecutor.shutdown();
+	}
+
+	@Benchmark
+	public NodeInfo parseTree() throws IOException, OWLOntologyCreationException, TransformerException {
+		return this.renderer.parseTree(this.request, this.source, new ArrayList<String>());
+	}
+}
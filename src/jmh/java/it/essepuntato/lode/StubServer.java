@@ -0,0 +1,68 @@
+package it.essepuntato.lode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server publishing ontologies from memory, so that downloads
+ * can be measured without depending on the network.
+ */
+public class StubServer {
+	private final HttpServer server;
+	private final Map<String, OntologySource> documents = new ConcurrentHashMap<String, OntologySource>();
+
+	public StubServer() throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		this.server.createContext("/", this::handle);
+		this.server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "LODE stub server");
+			thread.setDaemon(true);
+			return thread;
+		}));
+		this.server.start();
+	}
+
+	/**
+	 * Publishes the document at the given path.
+	 *
+	 * @return its URL
+	 */
+	public String publish(String path, OntologySource document) {
+		this.documents.put(path, document);
+		return getUrl(path);
+	}
+
+	public String getUrl(String path) {
+		return "http://" + this.server.getAddress().getHostString() + ":" + this.server.getAddress().getPort()
+				+ path;
+	}
+
+	public void stop() {
+		this.server.stop(0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		OntologySource document = this.documents.get(exchange.getRequestURI().getPath());
+		try {
+			if (document == null) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			exchange.getResponseHeaders().set("Content-Type", document.getContentType());
+			exchange.sendResponseHeaders(200, document.length());
+			try (OutputStream out = exchange.getResponseBody()) {
+				document.writeTo(out);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package it.essepuntato.lode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.semanticweb.owlapi.formats.RDFXMLDocumentFormat;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyStorageException;
+
+/**
+ * Produces the documentation page with
+ * {@link Renderer#applyXSLTTransformation}, in each language.
+ *
+ * RDF/XML sources are transformed as they are, as when OWLAPI is not used;
+ * the other ones are converted to RDF/XML by OWLAPI beforehand.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+public class TransformBenchmark {
+
+	@Param({ "test.owl", "proms.ttl", "1000", "10000", "100000", "500000" })
+	public String ontology;
+
+	@Param({ "en", "it", "fr", "de" })
+	public String lang;
+
+	private Renderer renderer;
+	private byte[] rdfxml;
+	private String url;
+
+	@Setup
+	public void setUp() throws IOException, OWLOntologyCreationException, OWLOntologyStorageException {
+		this.renderer = new Renderer(Corpus.getConfiguration());
+		OntologySource source = Corpus.load(this.ontology, null);
+		this.url = "http://example.org/" + this.ontology;
+
+		if ("text/turtle".equals(source.getMimeType())) {
+			OWLOntology parsed = this.renderer.parseWithOWLAPI(new URL(this.url), source, true, false, false, false,
+					Inference.parse(null), new ArrayList<String>());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			parsed.getOWLOntologyManager().saveOntology(parsed, new RDFXMLDocumentFormat(), out);
+			this.rdfxml = out.toByteArray();
+		} else {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(source.length());
+			source.writeTo(out);
+			this.rdfxml = out.toByteArray();
+		}
+	}
+
+	@Benchmark
+	public long applyXSLTTransformation() throws TransformerException {
+		CountingOutputStream out = new CountingOutputStream();
+		this.renderer.applyXSLTTransformation(new StreamSource(new ByteArrayInputStream(this.rdfxml)), this.url,
+				this.lang, Collections.<String>emptyList(), out);
+		return out.count;
+	}
+
+	/*
+	 * Discards the page, so that only the allocations of the transformation
+	 * itself are measured.
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		long count = 0;
+
+		@Override
+		public void write(int b) {
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			this.count += len;
+		}
+	}
+}
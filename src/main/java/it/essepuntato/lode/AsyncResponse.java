@@ -0,0 +1,49 @@
+package it.essepuntato.lode;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A response completed asynchronously, off the container thread.
+ *
+ * Several parties may race to finish the response (the work producing it and
+ * the deadline giving up on that work): each of them has to {@link #claim()}
+ * the response first, and only the one that succeeds may write the outcome
+ * and {@link #complete()} it.
+ */
+public class AsyncResponse {
+	private final AsyncContext context;
+	private final HttpServletResponse response;
+	private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+	/**
+	 * Puts the request in asynchronous mode. The container does not time it
+	 * out: the deadline is up to the caller.
+	 */
+	public AsyncResponse(HttpServletRequest request, HttpServletResponse response) {
+		this.context = request.startAsync(request, response);
+		this.context.setTimeout(0);
+		this.response = response;
+	}
+
+	public HttpServletResponse getResponse() {
+		return this.response;
+	}
+
+	/**
+	 * @return true if the caller is the one that has to finish the response
+	 */
+	public boolean claim() {
+		return this.claimed.compareAndSet(false, true);
+	}
+
+	/**
+	 * Hands the response back to the container.
+	 */
+	public void complete() {
+		this.context.complete();
+	}
+}
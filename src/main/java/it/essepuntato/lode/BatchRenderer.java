@@ -0,0 +1,430 @@
+package it.essepuntato.lode;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.saxon.om.NodeInfo;
+
+/**
+ * Renders a catalogue of ontologies to a directory of static pages, without
+ * going through the servlet.
+ *
+ * The manifest lists one ontology per line, as a URL or a local file,
+ * optionally followed by options that override the command line ones:
+ *
+ * <pre>
+ * # comment
+ * http://purl.org/spar/fabio owlapi=true lang=en,it
+ * ontologies/proms.ttl name=proms closure=true
+ * </pre>
+ *
+ * The pages of an ontology are written to OUTPUT/name/lang.html, next to the
+ * stylesheets and scripts they need. The ontologies are rendered in
+ * parallel; they share the compiled stylesheet and the imports cache, and
+ * each one is parsed once whatever the number of languages. An ontology whose
+ * content, imports (when it is loaded with OWLAPI) and options have not
+ * changed since the previous run is skipped.
+ */
+public class BatchRenderer {
+	private static final String USAGE = "Usage: BatchRenderer [options] MANIFEST OUTPUT_DIR\n"
+			+ "  --webapp DIR        the LODE web application (stylesheets, labels), default src/main/webapp\n"
+			+ "  --threads N         ontologies rendered at the same time, default the number of cores\n"
+			+ "  --lang LANGS        comma-separated languages of the pages, default the configured one\n"
+			+ "  --owlapi            pre-process the ontologies with OWLAPI\n"
+			+ "  --imported          include the axioms of the directly imported ontologies\n"
+			+ "  --closure           include the axioms of the whole imports closure\n"
+			+ "  --reasoner          include the axioms inferred by Pellet\n"
+			+ "  --inferences LIST   the kinds of inferred axioms to include\n"
+			+ "  --force             render the ontologies even if they have not changed\n"
+			+ "Manifest lines: SOURCE [owlapi=B] [imported=B] [closure=B] [reasoner=B] [inferences=LIST]"
+			+ " [lang=LANGS] [name=NAME]";
+
+	private static final String STATE_FILE = ".lode-state";
+	private static final String[] ASSETS = { ".css", ".js", ".ico", ".png", ".gif" };
+
+	private final LODEConfiguration conf;
+	private final File webapp;
+	private final File output;
+	private final boolean force;
+
+	private final AtomicInteger rendered = new AtomicInteger();
+	private final AtomicInteger unchanged = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicInteger pages = new AtomicInteger();
+	private final AtomicLong bytesFetched = new AtomicLong();
+
+	public BatchRenderer(LODEConfiguration conf, File webapp, File output, boolean force) {
+		this.conf = conf;
+		this.webapp = webapp;
+		this.output = output;
+		this.force = force;
+	}
+
+	public static void main(String[] args) throws Exception {
+		File webapp = new File("src/main/webapp");
+		int threads = Runtime.getRuntime().availableProcessors();
+		Job defaults = new Job();
+		boolean force = false;
+		List<String> positional = new ArrayList<String>();
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "--webapp":
+					webapp = new File(args[++i]);
+					break;
+				case "--threads":
+					threads = Integer.parseInt(args[++i]);
+					break;
+				case "--lang":
+					defaults.set("lang", args[++i]);
+					break;
+				case "--inferences":
+					defaults.set("inferences", args[++i]);
+					break;
+				case "--owlapi":
+				case "--imported":
+				case "--closure":
+				case "--reasoner":
+					defaults.set(args[i].substring(2), "true");
+					break;
+				case "--force":
+					force = true;
+					break;
+				case "--help":
+					System.out.println(USAGE);
+					return;
+				default:
+					if (args[i].startsWith("--")) {
+						throw new IllegalArgumentException("Unknown option " + args[i]);
+					}
+					positional.add(args[i]);
+				}
+			}
+			if (positional.size() != 2) {
+				throw new IllegalArgumentException("A manifest and an output directory are needed");
+			}
+		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			System.err.println(e.getMessage() == null ? USAGE : e.getMessage() + "\n" + USAGE);
+			System.exit(2);
+		}
+
+		LODEConfiguration conf = LODEConfiguration.getInstance(webapp.getAbsolutePath(), "");
+		if (defaults.langs.isEmpty()) {
+			defaults.langs.add(conf.getDefaultLang());
+		}
+		List<Job> jobs = readManifest(new File(positional.get(0)), defaults);
+
+		BatchRenderer renderer = new BatchRenderer(conf, webapp, new File(positional.get(1)), force);
+		boolean succeeded;
+		try {
+			succeeded = renderer.run(jobs, Math.max(1, threads));
+		} finally {
+			RenderExecutor.shutdown();
+		}
+		System.exit(succeeded ? 0 : 1);
+	}
+
+	private static List<Job> readManifest(File manifest, Job defaults) throws IOException {
+		List<Job> jobs = new ArrayList<Job>();
+		for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split("\\s+");
+			Job job = defaults.copy(fields[0]);
+			for (int i = 1; i < fields.length; i++) {
+				String[] option = fields[i].split("=", 2);
+				if (option.length != 2) {
+					throw new IOException("Malformed option " + fields[i] + " in the manifest line: " + line);
+				}
+				job.set(option[0], option[1]);
+			}
+			jobs.add(job);
+		}
+		return jobs;
+	}
+
+	/**
+	 * Renders the jobs and reports the throughput.
+	 *
+	 * @return false if any of them failed
+	 */
+	public boolean run(List<Job> jobs, int threads) throws IOException, InterruptedException {
+		this.output.mkdirs();
+		copyAssets();
+
+		long started = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for (Job job : jobs) {
+				results.add(pool.submit(() -> render(job)));
+			}
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					results.get(i).get();
+				} catch (ExecutionException e) {
+					// What render does not catch, such as running out of memory
+					this.failed.incrementAndGet();
+					System.err.println("FAILED " + jobs.get(i).name + " (" + jobs.get(i).source + "): " + e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		double seconds = (System.nanoTime() - started) / 1e9;
+		System.out.println(String.format(Locale.ROOT,
+				"%d rendered, %d unchanged, %d failed in %.1f s: %.2f ontologies/s, %.2f pages/s, %.1f MB fetched",
+				this.rendered.get(), this.unchanged.get(), this.failed.get(), seconds,
+				(this.rendered.get() + this.unchanged.get()) / seconds, this.pages.get() / seconds,
+				this.bytesFetched.get() / (1024.0 * 1024.0)));
+		return this.failed.get() == 0;
+	}
+
+	private void render(Job job) {
+		long started = System.nanoTime();
+		RenderTrace trace = new RenderTrace(job.source);
+		try {
+			File directory = new File(this.output, job.name);
+			OntologySource source = read(job, trace);
+			URL url = toURL(job.source);
+
+			Renderer renderer = new Renderer(this.conf, trace);
+			renderer.setCssLocation("../");
+			RenderRequest request = new RenderRequest(url.toString(), job.owlapi, job.imported, job.closure,
+					job.reasoner, job.inferences, job.langs.get(0));
+
+			// A job loaded with OWLAPI is rendered again when its imports change too
+			ImportsCache.Closure imports = renderer.prefetchImports(request, source);
+			Properties state = new Properties();
+			state.setProperty("hash", Renderer.hash(source, imports));
+			state.setProperty("options", job.toString());
+			if (!this.force && isUpToDate(directory, job, state)) {
+				this.unchanged.incrementAndGet();
+				System.out.println("unchanged " + job.name);
+				return;
+			}
+			directory.mkdirs();
+
+			/*
+			 * The source is parsed (and reasoned on) once, and the tree is
+			 * transformed in every language.
+			 */
+			List<String> notices = new ArrayList<String>();
+			NodeInfo tree = renderer.parseTree(request, source, imports, notices);
+
+			for (String lang : job.langs) {
+				File page = new File(directory, lang + ".html");
+				File temporary = File.createTempFile(lang, ".tmp", directory);
+				try {
+					try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temporary))) {
+						renderer.applyXSLTTransformation(tree, request.getUrl(), lang, notices, out);
+					}
+					Files.move(temporary.toPath(), page.toPath(), StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+				} finally {
+					temporary.delete();
+				}
+				this.pages.incrementAndGet();
+			}
+
+			// A degraded rendering is done again next time
+			if (!trace.isDegraded()) {
+				try (OutputStream out = new FileOutputStream(new File(directory, STATE_FILE))) {
+					state.store(out, null);
+				}
+			} else {
+				new File(directory, STATE_FILE).delete();
+			}
+
+			this.rendered.incrementAndGet();
+			System.out.println(String.format(Locale.ROOT, "rendered %s (%s) in %.3f s", job.name,
+					String.join(", ", job.langs), (System.nanoTime() - started) / 1e9));
+		} catch (Exception e) {
+			this.failed.incrementAndGet();
+			System.err.println("FAILED " + job.name + " (" + job.source + "): " + e.getMessage());
+		}
+	}
+
+	private OntologySource read(Job job, RenderTrace trace) throws IOException {
+		if (job.isRemote()) {
+			SourceExtractor extractor = new SourceExtractor(FetchCache.getInstance(this.conf));
+			extractor.addMimeTypes(MimeType.mimeTypes);
+			extractor.setMaxBytes(this.conf.getMaxSourceBytes());
+			extractor.setTimeouts(this.conf.getConnectTimeout() * 1000, this.conf.getReadTimeout() * 1000);
+			extractor.setRetries(this.conf.getMaxTentative(), this.conf.getRetryBackoff());
+			extractor.setCircuitBreaker(HostCircuitBreaker.getInstance(this.conf));
+			extractor.setTrace(trace);
+			OntologySource source = extractor.exec(new URL(job.source));
+			this.bytesFetched.addAndGet(source.length());
+			return source;
+		}
+
+		File file = new File(job.source);
+		String name = file.getName().toLowerCase(Locale.ROOT);
+		String contentType = name.endsWith(".ttl") || name.endsWith(".n3") || name.endsWith(".nt") ? "text/turtle"
+				: name.endsWith(".jsonld") || name.endsWith(".json") ? "application/ld+json" : "application/rdf+xml";
+		try (InputStream in = new FileInputStream(file)) {
+			return OntologySource.read(in, contentType, this.conf.getMaxSourceBytes());
+		}
+	}
+
+	private static URL toURL(String source) throws IOException {
+		return source.startsWith("http://") || source.startsWith("https://") ? new URL(source)
+				: new File(source).toURI().toURL();
+	}
+
+	private boolean isUpToDate(File directory, Job job, Properties current) {
+		File stateFile = new File(directory, STATE_FILE);
+		if (!stateFile.isFile()) {
+			return false;
+		}
+		for (String lang : job.langs) {
+			if (!new File(directory, lang + ".html").isFile()) {
+				return false;
+			}
+		}
+		Properties previous = new Properties();
+		try (InputStream in = new FileInputStream(stateFile)) {
+			previous.load(in);
+		} catch (IOException e) {
+			return false;
+		}
+		return previous.equals(current);
+	}
+
+	/*
+	 * The pages refer to the stylesheets and scripts of the web application
+	 * with relative links.
+	 */
+	private void copyAssets() throws IOException {
+		File[] assets = this.webapp.listFiles(
+				(dir, name) -> Arrays.stream(ASSETS).anyMatch(extension -> name.endsWith(extension)));
+		if (assets == null) {
+			throw new IOException("The web application directory " + this.webapp + " cannot be read");
+		}
+		for (File asset : assets) {
+			File copy = new File(this.output, asset.getName());
+			if (!copy.isFile() || copy.lastModified() < asset.lastModified()) {
+				Files.copy(asset.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+	}
+
+	/**
+	 * An ontology of the manifest, with its options.
+	 */
+	private static class Job {
+		String source;
+		String name;
+		boolean owlapi = false;
+		boolean imported = false;
+		boolean closure = false;
+		boolean reasoner = false;
+		Set<Inference> inferences = Inference.parse(null);
+		List<String> langs = new ArrayList<String>();
+
+		Job copy(String source) {
+			Job job = new Job();
+			job.source = source;
+			job.name = defaultName(source);
+			job.owlapi = this.owlapi;
+			job.imported = this.imported;
+			job.closure = this.closure;
+			job.reasoner = this.reasoner;
+			job.inferences = this.inferences;
+			job.langs = new ArrayList<String>(this.langs);
+			return job;
+		}
+
+		void set(String key, String value) {
+			switch (key) {
+			case "owlapi":
+				this.owlapi = Boolean.parseBoolean(value);
+				break;
+			case "imported":
+				this.imported = Boolean.parseBoolean(value);
+				break;
+			case "closure":
+				this.closure = Boolean.parseBoolean(value);
+				break;
+			case "reasoner":
+				this.reasoner = Boolean.parseBoolean(value);
+				break;
+			case "inferences":
+				this.inferences = Inference.parse(value);
+				break;
+			case "lang":
+				this.langs = new ArrayList<String>(Arrays.asList(value.split(",")));
+				break;
+			case "name":
+				this.name = value;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + key);
+			}
+		}
+
+		boolean isRemote() {
+			return this.source.startsWith("http://") || this.source.startsWith("https://");
+		}
+
+		boolean useOWLAPI() {
+			return this.owlapi || this.imported || this.closure || this.reasoner;
+		}
+
+		/*
+		 * The host and path of a URL, or the name of a file without its
+		 * extension, reduced to characters safe in a directory name.
+		 */
+		private static String defaultName(String source) {
+			String name;
+			if (source.startsWith("http://") || source.startsWith("https://")) {
+				name = source.substring(source.indexOf("://") + 3);
+			} else {
+				name = new File(source).getName();
+				int extension = name.lastIndexOf('.');
+				if (extension > 0) {
+					name = name.substring(0, extension);
+				}
+			}
+			name = name.replaceAll("[^A-Za-z0-9._-]+", "_").replaceAll("^[._]+|_+$", "");
+			return name.isEmpty() ? RenderCache.hash(source) : name;
+		}
+
+		/**
+		 * @return the options that change the pages, as stored in the state
+		 *         of the previous run
+		 */
+		@Override
+		public String toString() {
+			return "owlapi=" + useOWLAPI() + " imported=" + this.imported + " closure=" + this.closure
+					+ " reasoner=" + this.reasoner + " inferences=" + (this.reasoner ? this.inferences : "[]")
+					+ " lang=" + this.langs;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package it.essepuntato.lode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes everything through to the wrapped stream while keeping a copy of it,
+ * as long as the copy does not grow beyond a given limit.
+ */
+public class CapturingOutputStream extends FilterOutputStream {
+	private final long limit;
+	private ByteArrayOutputStream copy;
+
+	public CapturingOutputStream(OutputStream out, long limit) {
+		super(out);
+		this.limit = limit;
+		this.copy = limit > 0 ? new ByteArrayOutputStream() : null;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		this.out.write(b);
+		capture(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		this.out.write(b, off, len);
+		capture(b, off, len);
+	}
+
+	private void capture(byte[] b, int off, int len) {
+		if (this.copy != null) {
+			if (this.copy.size() + len > this.limit) {
+				this.copy = null;
+			} else {
+				this.copy.write(b, off, len);
+			}
+		}
+	}
+
+	/**
+	 * @return everything written so far, or null if it exceeded the limit
+	 */
+	public byte[] getCapture() {
+		return this.copy != null ? this.copy.toByteArray() : null;
+	}
+
+	/**
+	 * Closes the capture only: the wrapped stream belongs to the caller.
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+}
@@ -0,0 +1,196 @@
+package it.essepuntato.lode;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+
+/**
+ * On-disk store of downloaded sources and of the validators (ETag,
+ * Last-Modified) that allow {@link SourceExtractor} to revalidate them with a
+ * conditional request instead of downloading them again.
+ */
+public class FetchCache {
+
+	private static FetchCache instance = null;
+
+	private final File directory;
+	private final long maxDiskBytes;
+
+	public FetchCache(File directory, long maxDiskBytes) {
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			directory = null;
+		}
+		this.directory = directory;
+		this.maxDiskBytes = maxDiskBytes;
+	}
+
+	public static synchronized FetchCache getInstance(LODEConfiguration conf) {
+		if (instance == null) {
+			String path = conf.getFetchCacheDirectory();
+			instance = new FetchCache(path == null || path.isEmpty() ? null : new File(path),
+					conf.getFetchCacheMaxDiskBytes());
+		}
+		return instance;
+	}
+
+	public boolean isEnabled() {
+		return this.directory != null;
+	}
+
+	/**
+	 * Returns the stored copy of the source at the given URL, or null.
+	 */
+	public Entry get(URL url) {
+		if (!isEnabled()) {
+			return null;
+		}
+
+		String key = RenderCache.hash(url.toString());
+		File body = new File(this.directory, key + ".body");
+		File meta = new File(this.directory, key + ".properties");
+		if (!body.isFile() || !meta.isFile()) {
+			return null;
+		}
+
+		Properties properties = new Properties();
+		OntologySource content;
+		try (InputStream in = new FileInputStream(meta)) {
+			properties.load(in);
+			byte[] data = Files.readAllBytes(body.toPath());
+			content = new OntologySource(data, data.length, properties.getProperty("contentType"));
+		} catch (IOException e) {
+			// Being replaced, or removed by trim
+			return null;
+		}
+
+		// A body that does not match its validators is being replaced
+		if (!content.hash().equals(properties.getProperty("hash"))) {
+			return null;
+		}
+		return new Entry(content, properties.getProperty("etag"), properties.getProperty("lastModified"));
+	}
+
+	/**
+	 * Stores a downloaded source, provided the origin sent a validator that can
+	 * be used to revalidate it later.
+	 */
+	public void put(URL url, Entry entry) {
+		if (!isEnabled() || (entry.etag == null && entry.lastModified == null)) {
+			return;
+		}
+
+		Properties properties = new Properties();
+		if (entry.etag != null) {
+			properties.setProperty("etag", entry.etag);
+		}
+		if (entry.lastModified != null) {
+			properties.setProperty("lastModified", entry.lastModified);
+		}
+		if (entry.content.getContentType() != null) {
+			properties.setProperty("contentType", entry.content.getContentType());
+		}
+
+		properties.setProperty("hash", entry.content.hash());
+
+		/*
+		 * Both files are written aside and moved into place. The properties
+		 * mark the entry complete: they are removed first and published last,
+		 * and carry the hash of the body they go with, so that a concurrent
+		 * get never pairs a body with the validators of another.
+		 */
+		String key = RenderCache.hash(url.toString());
+		File meta = new File(this.directory, key + ".properties");
+		try {
+			meta.delete();
+			File temporary = File.createTempFile("fetch", ".tmp", this.directory);
+			try {
+				try (OutputStream out = new FileOutputStream(temporary)) {
+					entry.content.writeTo(out);
+				}
+				Files.move(temporary.toPath(), new File(this.directory, key + ".body").toPath(),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				try (OutputStream out = new FileOutputStream(temporary)) {
+					properties.store(out, url.toString());
+				}
+				Files.move(temporary.toPath(), meta.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				temporary.delete();
+			}
+		} catch (IOException e) {
+			delete(key);
+			return;
+		}
+
+		trim();
+	}
+
+	private void delete(String key) {
+		new File(this.directory, key + ".body").delete();
+		new File(this.directory, key + ".properties").delete();
+	}
+
+	/*
+	 * Removes the least recently stored sources until the store fits its budget.
+	 */
+	private synchronized void trim() {
+		File[] bodies = this.directory.listFiles((dir, name) -> name.endsWith(".body"));
+		if (bodies == null) {
+			return;
+		}
+
+		long total = 0;
+		for (File body : bodies) {
+			total += body.length();
+		}
+		if (total <= this.maxDiskBytes) {
+			return;
+		}
+
+		Arrays.sort(bodies, Comparator.comparingLong(File::lastModified));
+		for (File body : bodies) {
+			if (total <= this.maxDiskBytes) {
+				break;
+			}
+			total -= body.length();
+			String name = body.getName();
+			delete(name.substring(0, name.length() - ".body".length()));
+		}
+	}
+
+	/**
+	 * A stored source and its validators.
+	 */
+	public static class Entry {
+		private final OntologySource content;
+		private final String etag;
+		private final String lastModified;
+
+		public Entry(OntologySource content, String etag, String lastModified) {
+			this.content = content;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+		public OntologySource getContent() {
+			return this.content;
+		}
+
+		public String getETag() {
+			return this.etag;
+		}
+
+		public String getLastModified() {
+			return this.lastModified;
+		}
+	}
+}
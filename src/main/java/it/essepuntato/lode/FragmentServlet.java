@@ -0,0 +1,346 @@
+package it.essepuntato.lode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.saxon.om.NodeInfo;
+
+import org.owasp.encoder.Encode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the entity sections of the documentation pages that have too many
+ * entities to be rendered at once (see
+ * {@link LODEConfiguration#getLazyEntities()}), a page of entities at a time,
+ * as the scripts of those pages ask for them.
+ *
+ * Besides the options of the extract service, a request names the section, the
+ * page and the hash of the source the documentation page was rendered from
+ * (with its imports, if it was loaded with OWLAPI). The fragment is produced
+ * from the same tree as that page: the one kept in the {@link TreeCache} or,
+ * failing that, the source parsed again, as long as neither it nor its
+ * imports have changed. Fragments are kept in the {@link RenderCache} and, as
+ * they never change for a given source, can be kept by browsers too. The
+ * fragments asked for at once by a page share a single parse of the source.
+ */
+public class FragmentServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+	private static final Set<String> SECTIONS = new HashSet<String>(Arrays.asList("classes", "objectproperties",
+			"dataproperties", "namedindividuals", "annotationproperties"));
+	private static final Logger logger = LoggerFactory.getLogger(FragmentServlet.class);
+
+	private final transient SingleFlight<NodeInfo> trees = new SingleFlight<NodeInfo>();
+
+	/**
+	 * The fragment is produced on the render pools; the container thread
+	 * returns as soon as the work has been handed over.
+	 *
+	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse
+	 *      response)
+	 */
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		LODEConfiguration conf = LODEConfiguration.getInstance(getServletContext(), request);
+		RenderRequest renderRequest;
+		try {
+			renderRequest = RenderRequest.fromParameters(request, conf.getDefaultLang());
+		} catch (IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		String section = request.getParameter("section");
+		String sourceHash = request.getParameter("source");
+		int page;
+		try {
+			page = Integer.parseInt(request.getParameter("page"));
+		} catch (NumberFormatException e) {
+			page = 0;
+		}
+		if (renderRequest.getUrl() == null || !SECTIONS.contains(section) || sourceHash == null || page < 1) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"A fragment needs the url, section, page and source parameters.");
+			return;
+		}
+
+		response.setContentType("text/html");
+		response.setCharacterEncoding("UTF-8");
+
+		RenderCache cache = RenderCache.getInstance(conf);
+		String key = renderRequest.getFragmentKey(sourceHash, section, page);
+		RenderCache.Entry cached = cache.get(key);
+		if (cache.isEnabled()) {
+			Metrics.getInstance().cacheLookup("fragment", cached != null);
+		}
+		if (cached != null) {
+			response.setHeader("Cache-Control", "max-age=" + conf.getRenderCacheTtl());
+			response.getOutputStream().write(cached.getHtml());
+			return;
+		}
+
+		RenderExecutor executor = RenderExecutor.getInstance(conf);
+		AsyncResponse async = new AsyncResponse(request, response);
+		AtomicReference<Future<?>> render = new AtomicReference<Future<?>>();
+		AtomicReference<SingleFlight<NodeInfo>.Call> parsing = new AtomicReference<SingleFlight<NodeInfo>.Call>();
+		RenderTrace trace = new RenderTrace(renderRequest.getUrl());
+
+		ScheduledFuture<?> deadline = executor.schedule(() -> {
+			if (async.claim()) {
+				Future<?> running = render.get();
+				if (running != null) {
+					running.cancel(true);
+				}
+				// The fragments waiting on a parse that may never have started are released
+				SingleFlight<NodeInfo>.Call call = parsing.get();
+				if (call != null) {
+					call.fail(new IOException("This part of the documentation could not be generated within "
+							+ conf.getRenderTimeout() + " seconds."));
+				}
+				trace.finish("timeout", conf.getSlowRenderThreshold());
+				try {
+					sendError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+							"This part of the documentation could not be generated within "
+									+ conf.getRenderTimeout() + " seconds.");
+				} catch (IOException e) {
+					logger.warn("Could not send the timeout of a fragment of {}", renderRequest.getUrl(), e);
+				} finally {
+					async.complete();
+				}
+			}
+		}, conf.getRenderTimeout(), TimeUnit.SECONDS);
+		Fragment fragment = new Fragment(conf, renderRequest, sourceHash, section, page, key, async, render, deadline,
+				trace);
+
+		/*
+		 * The fragment is produced from the same tree as its page: the cached
+		 * one or, failing that, the source parsed again. The fragments a page
+		 * asks for at once share a single parse: the first one parses, the
+		 * others wait for its tree without holding a render thread, and are
+		 * transformed once it is there.
+		 */
+		String treeKey = renderRequest.getTreeKey(sourceHash);
+		TreeCache.Entry cachedTree = TreeCache.getInstance(conf).get(treeKey);
+		Metrics.getInstance().cacheLookup("tree", cachedTree != null);
+		if (cachedTree != null) {
+			fragment.submit(renderer -> cachedTree.getTree());
+			return;
+		}
+
+		SingleFlight<NodeInfo>.Call call = this.trees.join(treeKey);
+		if (call.isLeader()) {
+			parsing.set(call);
+			if (!fragment.submit(renderer -> parse(conf, renderer, renderRequest, sourceHash, trace, call))) {
+				call.fail(new RejectedExecutionException());
+			}
+		} else {
+			call.getFuture().whenCompleteAsync((tree, failure) -> {
+				if (failure == null) {
+					fragment.submit(renderer -> tree);
+				} else {
+					fragment.finish(null, failure instanceof Exception ? (Exception) failure : new Exception(failure));
+				}
+			}, executor::execute);
+		}
+	}
+
+	/*
+	 * Parses the source again for the fragments of a page whose tree is not
+	 * cached any more, provided neither it nor its imports have changed, and
+	 * hands the tree to the fragments waiting on the call.
+	 */
+	private static NodeInfo parse(LODEConfiguration conf, Renderer renderer, RenderRequest request,
+			String sourceHash, RenderTrace trace, SingleFlight<NodeInfo>.Call call) throws Exception {
+		try {
+			SourceExtractor extractor = new SourceExtractor(FetchCache.getInstance(conf));
+			extractor.addMimeTypes(MimeType.mimeTypes);
+			extractor.setMaxBytes(conf.getMaxSourceBytes());
+			extractor.setTimeouts(conf.getConnectTimeout() * 1000, conf.getReadTimeout() * 1000);
+			extractor.setRetries(conf.getMaxTentative(), conf.getRetryBackoff());
+			extractor.setCircuitBreaker(HostCircuitBreaker.getInstance(conf));
+			extractor.setNegativeCache(NegativeCache.getInstance(conf));
+			extractor.setTrace(trace);
+			OntologySource source = extractor.exec(new URL(request.getUrl()));
+			ImportsCache.Closure imports = renderer.prefetchImports(request, source);
+			if (!Renderer.hash(source, imports).equals(sourceHash)) {
+				throw new SourceChangedException();
+			}
+			NodeInfo tree = renderer.parseTree(request, source, imports, new ArrayList<String>());
+			call.complete(tree);
+			return tree;
+		} catch (Throwable e) {
+			call.fail(e);
+			throw e;
+		} finally {
+			// Whatever happened, the fragments waiting on the parse are released
+			call.fail(new IOException("The documentation could not be generated."));
+		}
+	}
+
+	/**
+	 * Where a tree the fragment is transformed from comes from.
+	 */
+	private interface TreeSource {
+		NodeInfo get(Renderer renderer) throws Exception;
+	}
+
+	/**
+	 * A fragment being produced, and the response waiting for it.
+	 */
+	private static class Fragment {
+		private final LODEConfiguration conf;
+		private final RenderRequest request;
+		private final String sourceHash;
+		private final String section;
+		private final int page;
+		private final String key;
+		private final AsyncResponse async;
+		private final AtomicReference<Future<?>> render;
+		private final ScheduledFuture<?> deadline;
+		private final RenderTrace trace;
+
+		Fragment(LODEConfiguration conf, RenderRequest request, String sourceHash, String section, int page,
+				String key, AsyncResponse async, AtomicReference<Future<?>> render, ScheduledFuture<?> deadline,
+				RenderTrace trace) {
+			this.conf = conf;
+			this.request = request;
+			this.sourceHash = sourceHash;
+			this.section = section;
+			this.page = page;
+			this.key = key;
+			this.async = async;
+			this.render = render;
+			this.deadline = deadline;
+			this.trace = trace;
+		}
+
+		/*
+		 * Transforms the page of the section from the tree on the render pool
+		 * of the request, and sends it.
+		 *
+		 * @return false if the pool was too busy, the response having been
+		 * sent
+		 */
+		boolean submit(TreeSource tree) {
+			RenderExecutor executor = RenderExecutor.getInstance(this.conf);
+			try {
+				this.render.set(executor.submit(this.request, () -> {
+					byte[] fragment = null;
+					Exception failure = null;
+					try {
+						Renderer renderer = new Renderer(this.conf, this.trace);
+						ByteArrayOutputStream out = new ByteArrayOutputStream();
+						renderer.applyFragmentTransformation(tree.get(renderer), this.request.getUrl(),
+								this.request.getLang(), this.section, this.page, out);
+						fragment = out.toByteArray();
+						if (!this.trace.isDegraded()) {
+							RenderCache.getInstance(this.conf).put(this.key,
+									new RenderCache.Entry(fragment, this.sourceHash, null, null));
+						}
+					} catch (Exception e) {
+						failure = e;
+					}
+					finish(fragment, failure);
+					return null;
+				}));
+				return true;
+			} catch (RejectedExecutionException e) {
+				Metrics.getInstance().outcome("busy");
+				sendBusy();
+				return false;
+			}
+		}
+
+		private void sendBusy() {
+			if (!this.async.claim()) {
+				return;
+			}
+			this.deadline.cancel(false);
+			HttpServletResponse response = this.async.getResponse();
+			try {
+				response.setHeader("Retry-After", Integer.toString(this.conf.getRetryAfter()));
+				sendError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+						"The server is too busy to generate this part of the documentation, please try again later.");
+			} catch (IOException e) {
+				logger.warn("Could not send a fragment of {}", this.request.getUrl(), e);
+			} finally {
+				this.async.complete();
+			}
+		}
+
+		/*
+		 * Sends the fragment, or the reason it could not be produced.
+		 */
+		void finish(byte[] fragment, Exception failure) {
+			// The pool had no room for the parse this fragment was waiting on
+			if (failure instanceof RejectedExecutionException) {
+				sendBusy();
+				return;
+			}
+			this.trace.finish(failure == null ? "ok" : "error", this.conf.getSlowRenderThreshold());
+			if (!this.async.claim()) {
+				return;
+			}
+			this.deadline.cancel(false);
+			HttpServletResponse response = this.async.getResponse();
+			try {
+				if (failure instanceof SourceChangedException) {
+					sendError(response, HttpServletResponse.SC_CONFLICT, failure.getMessage());
+				} else if (failure != null) {
+					this.trace.failed(failure);
+					sendError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, failure.getMessage());
+				} else {
+					response.setHeader("Cache-Control", "max-age=" + this.conf.getRenderCacheTtl());
+					response.getOutputStream().write(fragment);
+				}
+			} catch (IOException e) {
+				logger.warn("Could not send a fragment of {}", this.request.getUrl(), e);
+			} finally {
+				this.async.complete();
+			}
+		}
+	}
+
+	/*
+	 * The error is shown by the page in place of the fragment.
+	 */
+	private static void sendError(HttpServletResponse response, int status, String message) throws IOException {
+		if (response.isCommitted()) {
+			return;
+		}
+		response.reset();
+		response.setStatus(status);
+		response.setContentType("text/html");
+		response.setCharacterEncoding("UTF-8");
+		response.getOutputStream()
+				.write(("<p class=\"notice\">" + Encode.forHtml(message) + "</p>").getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * The source has changed since the documentation page asking for the
+	 * fragment was rendered: the page has to be loaded again.
+	 */
+	private static class SourceChangedException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		SourceChangedException() {
+			super("The ontology or its imports have changed since this documentation was generated: reload the page.");
+		}
+	}
+}
@@ -16,8 +16,13 @@
 package it.essepuntato.lode;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.URL;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -25,12 +30,15 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.owasp.encoder.Encode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Servlet implementation class GetSource
  */
 public class GetSource extends HttpServlet {
 	private static final long serialVersionUID = 1L;
+	private static final Logger logger = LoggerFactory.getLogger(GetSource.class);
 
     /**
      * @see HttpServlet#HttpServlet()
@@ -41,29 +49,83 @@ public class GetSource extends HttpServlet {
     }
 
 	/**
+	 * The source is downloaded off the container thread, which returns as soon
+	 * as the download has been handed over.
+	 *
 	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
 	 */
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 
-		SourceExtractor extractor = new SourceExtractor();
-		extractor.addMimeTypes(MimeType.mimeTypes);
+		LODEConfiguration conf = LODEConfiguration.getInstance(getServletContext(), request);
+		RenderExecutor executor = RenderExecutor.getInstance(conf);
+		String stringURL = request.getParameter("url");
 		response.setCharacterEncoding("UTF-8");
+		AsyncResponse async = new AsyncResponse(request, response);
 
-		try {
-			String stringURL = request.getParameter("url");
-			String content = "";
+		AtomicReference<Future<?>> download = new AtomicReference<Future<?>>();
+		ScheduledFuture<?> deadline = executor.schedule(() -> {
+			if (async.claim()) {
+				Future<?> running = download.get();
+				if (running != null) {
+					running.cancel(true);
+				}
+				try {
+					response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+					response.setContentType("text/html");
+					response.getWriter().println(getErrorPage(new Exception(
+							"The source could not be downloaded within " + conf.getRenderTimeout() + " seconds.")));
+				} catch (IOException e) {
+					logger.warn("Could not send the timeout of the source {}", stringURL, e);
+				} finally {
+					async.complete();
+				}
+			}
+		}, conf.getRenderTimeout(), TimeUnit.SECONDS);
 
-			URL ontologyURL = new URL(stringURL);
-			content = extractor.exec(ontologyURL);
+		download.set(executor.execute(() -> {
+			OntologySource content = null;
+			Exception failure = null;
+			try {
+				SourceExtractor extractor = new SourceExtractor(FetchCache.getInstance(conf));
+				extractor.addMimeTypes(MimeType.mimeTypes);
+				extractor.setMaxBytes(conf.getMaxSourceBytes());
+				extractor.setTimeouts(conf.getConnectTimeout() * 1000, conf.getReadTimeout() * 1000);
+				extractor.setRetries(conf.getMaxTentative(), conf.getRetryBackoff());
+				extractor.setCircuitBreaker(HostCircuitBreaker.getInstance(conf));
+				extractor.setNegativeCache(NegativeCache.getInstance(conf));
+				content = extractor.exec(new URL(stringURL));
+			} catch (Exception e) {
+				failure = e;
+			}
 
-			response.setContentType("text/plain");
-			PrintWriter out = response.getWriter();
-			out.println(content);
-		} catch (Exception e) {
-			response.setContentType("text/html");
-			PrintWriter out = response.getWriter();
-			out.println(getErrorPage(e));
+			if (!async.claim()) {
+				return;
+			}
+			deadline.cancel(false);
+			try {
+				if (failure == null) {
+					writeSource(content, response);
+				} else {
+					response.setContentType("text/html");
+					PrintWriter out = response.getWriter();
+					out.println(getErrorPage(failure));
+				}
+			} catch (IOException e) {
+				logger.warn("Could not send the source {}", stringURL, e);
+			} finally {
+				async.complete();
+			}
+		}));
+	}
+
+	private void writeSource(OntologySource content, HttpServletResponse response) throws IOException {
+		response.setContentType("text/plain");
+		if (content.getCharset() != null) {
+			response.setCharacterEncoding(content.getCharset().name());
 		}
+		OutputStream out = response.getOutputStream();
+		content.writeTo(out);
+		out.flush();
 	}
 
 	private String getErrorPage(Exception e) {
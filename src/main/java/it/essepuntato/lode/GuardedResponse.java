@@ -0,0 +1,94 @@
+package it.essepuntato.lode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * The part of a servlet response a background render is allowed to touch.
+ *
+ * Once the request thread gives up on the render (e.g. because its deadline
+ * expired) it detaches the guard: from then on every operation fails, so a
+ * render that is still running cannot write into a response that has already
+ * been completed, or recycled, by the container.
+ */
+public class GuardedResponse {
+	private final HttpServletResponse response;
+	private final OutputStream out;
+	private boolean detached = false;
+
+	public GuardedResponse(HttpServletResponse response) throws IOException {
+		this.response = response;
+		this.out = new GuardedStream(response.getOutputStream());
+	}
+
+	/**
+	 * @return the response body; writes fail once the guard is detached
+	 */
+	public OutputStream getOutputStream() {
+		return this.out;
+	}
+
+	public synchronized boolean isCommitted() throws IOException {
+		check();
+		return this.response.isCommitted();
+	}
+
+	/**
+	 * Discards whatever has been buffered so far, restoring the headers of an
+	 * HTML page.
+	 */
+	public synchronized void reset() throws IOException {
+		check();
+		this.response.reset();
+		this.response.setContentType("text/html");
+		this.response.setCharacterEncoding("UTF-8");
+	}
+
+	/**
+	 * Cuts the render off from the response. Waits for a write in progress to
+	 * complete.
+	 */
+	public synchronized void detach() {
+		this.detached = true;
+	}
+
+	private void check() throws IOException {
+		if (this.detached) {
+			throw new IOException("The response is no longer available to this render.");
+		}
+	}
+
+	private class GuardedStream extends OutputStream {
+		private final OutputStream target;
+
+		GuardedStream(OutputStream target) {
+			this.target = target;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			synchronized (GuardedResponse.this) {
+				check();
+				this.target.write(b);
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			synchronized (GuardedResponse.this) {
+				check();
+				this.target.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			synchronized (GuardedResponse.this) {
+				check();
+				this.target.flush();
+			}
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package it.essepuntato.lode;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops downloading from hosts that keep failing.
+ *
+ * After circuitBreakerFailures transient failures in a row (timeouts, refused
+ * connections, 5xx answers) the circuit of a host opens: downloads from it
+ * fail straight away for circuitBreakerCooldown seconds instead of tying up a
+ * thread until they time out. Then a single download is let through; the
+ * circuit closes again if it succeeds and stays open for another cooldown if
+ * it fails (or does not report back within one).
+ */
+public class HostCircuitBreaker {
+	private static final Logger logger = LoggerFactory.getLogger(HostCircuitBreaker.class);
+
+	private static HostCircuitBreaker instance = null;
+
+	private final int threshold;
+	private final long cooldown;
+	private final Map<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+
+	public HostCircuitBreaker(int threshold, long cooldown) {
+		this.threshold = threshold;
+		this.cooldown = cooldown;
+	}
+
+	public static synchronized HostCircuitBreaker getInstance(LODEConfiguration conf) {
+		if (instance == null) {
+			instance = new HostCircuitBreaker(conf.getCircuitBreakerFailures(),
+					conf.getCircuitBreakerCooldown() * 1000L);
+		}
+		return instance;
+	}
+
+	public boolean isEnabled() {
+		return this.threshold > 0;
+	}
+
+	/**
+	 * Lets a download from the host of the URL go ahead, unless its circuit is
+	 * open.
+	 *
+	 * @throws IOException
+	 *             if the circuit is open
+	 */
+	public void check(URL url) throws IOException {
+		Circuit circuit = this.circuits.get(url.getHost());
+		if (circuit == null) {
+			return;
+		}
+		synchronized (circuit) {
+			long now = System.currentTimeMillis();
+			if (circuit.openUntil == 0) {
+				return;
+			}
+			if (now >= circuit.openUntil) {
+				// The probe has a cooldown of its own to report back
+				circuit.openUntil = now + this.cooldown;
+				circuit.probing = true;
+				return;
+			}
+			Metrics.getInstance().circuitRejected();
+			throw new IOException("The server " + url.getHost() + " has not been responding; it will be tried again in "
+					+ Math.max(1, (circuit.openUntil - now + 999) / 1000) + " seconds.");
+		}
+	}
+
+	/**
+	 * Records that the host answered, even with an error: its circuit closes.
+	 */
+	public void succeeded(URL url) {
+		Circuit circuit = this.circuits.remove(url.getHost());
+		if (circuit != null && circuit.openUntil != 0) {
+			logger.info("The circuit of {} is closed again", url.getHost());
+		}
+	}
+
+	/**
+	 * Records a transient failure of the host, opening its circuit if there
+	 * have been too many in a row.
+	 */
+	public void failed(URL url) {
+		if (!isEnabled()) {
+			return;
+		}
+		Circuit circuit = this.circuits.computeIfAbsent(url.getHost(), host -> new Circuit());
+		synchronized (circuit) {
+			circuit.failures++;
+			if (circuit.probing || circuit.failures >= this.threshold) {
+				circuit.openUntil = System.currentTimeMillis() + this.cooldown;
+				circuit.probing = false;
+				Metrics.getInstance().circuitOpened();
+				logger.warn("Opened the circuit of {} after {} failures in a row", url.getHost(), circuit.failures);
+			}
+		}
+	}
+
+	private static class Circuit {
+		int failures = 0;
+		long openUntil = 0;
+		boolean probing = false;
+	}
+}
@@ -0,0 +1,442 @@
+package it.essepuntato.lode;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLOntologyIRIMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local copies of the ontologies imported by the rendered ones.
+ *
+ * Registered as an IRI mapper, it makes OWLAPI resolve an owl:imports to a
+ * file downloaded by a previous request, as long as that copy is younger than
+ * the configured TTL. Expired copies are revalidated through the
+ * {@link FetchCache} when possible, and kept in use when the origin cannot be
+ * reached. Concurrent requests for the same import share one download, and
+ * no more than a few downloads at a time go to the same host.
+ *
+ * The imports closure of a document can be {@link #prefetch prefetched} in
+ * parallel before OWLAPI parses it, since OWLAPI itself resolves the imports
+ * one after another.
+ */
+public class ImportsCache implements OWLOntologyIRIMapper {
+	private static final long serialVersionUID = 1L;
+	private static final Logger logger = LoggerFactory.getLogger(ImportsCache.class);
+
+	private static ImportsCache instance = null;
+
+	private static final Pattern RDFXML_IMPORT = Pattern.compile(
+			"<(?:[\\w.-]+:)?imports\\s[^>]*?(?:[\\w.-]+:)?resource\\s*=\\s*[\"']([^\"']+)[\"']");
+	private static final Pattern TURTLE_IMPORT = Pattern.compile(
+			"(?:owl:imports|<http://www\\.w3\\.org/2002/07/owl#imports>)\\s+((?:<[^>\\s]+>\\s*,?\\s*)+)");
+	private static final Pattern JSONLD_IMPORT = Pattern.compile(
+			"\"(?:owl:imports|http://www\\.w3\\.org/2002/07/owl#imports)\"\\s*:\\s*(\\[[^\\]]*\\]|\\{[^}]*\\}|\"[^\"]*\")");
+	private static final Pattern IRI_VALUE = Pattern.compile("[<\"](https?://[^>\"\\s]+)[>\"]");
+
+	// Documents are scanned a window at a time; consecutive windows overlap, so an import is not cut in two
+	private static final int SCAN_WINDOW = 64 * 1024;
+	private static final int SCAN_OVERLAP = 8 * 1024;
+
+	private final transient File directory;
+	private final transient long ttl;
+	private final transient long maxDiskBytes;
+	private final transient long maxSourceBytes;
+	private final transient FetchCache fetchCache;
+	private final transient HostCircuitBreaker breaker;
+	private final transient int connectTimeout;
+	private final transient int readTimeout;
+	private final transient int perHost;
+	private final transient SingleFlight<File> downloads = new SingleFlight<File>();
+	private final transient ConcurrentMap<String, Semaphore> hosts = new ConcurrentHashMap<String, Semaphore>();
+
+	private ImportsCache(LODEConfiguration conf) {
+		String path = conf.getImportsCacheDirectory();
+		File directory = path == null || path.isEmpty()
+				? new File(System.getProperty("java.io.tmpdir"), "lode-imports")
+				: new File(path);
+		if (conf.getImportsCacheTtl() <= 0 || (!directory.isDirectory() && !directory.mkdirs())) {
+			directory = null;
+		}
+		this.directory = directory;
+		this.ttl = conf.getImportsCacheTtl() * 1000L;
+		this.maxDiskBytes = conf.getImportsCacheMaxDiskBytes();
+		this.maxSourceBytes = conf.getMaxSourceBytes();
+		this.perHost = Math.max(1, conf.getImportsPerHost());
+		this.fetchCache = FetchCache.getInstance(conf);
+		this.breaker = HostCircuitBreaker.getInstance(conf);
+		this.connectTimeout = conf.getConnectTimeout() * 1000;
+		this.readTimeout = conf.getReadTimeout() * 1000;
+	}
+
+	public static synchronized ImportsCache getInstance(LODEConfiguration conf) {
+		if (instance == null) {
+			instance = new ImportsCache(conf);
+		}
+		return instance;
+	}
+
+	public boolean isEnabled() {
+		return this.directory != null;
+	}
+
+	/**
+	 * @return the local copy of the ontology, or null to let OWLAPI fetch it
+	 */
+	@Override
+	public IRI getDocumentIRI(IRI ontologyIRI) {
+		if (!isEnabled()) {
+			return null;
+		}
+		String scheme = ontologyIRI.getScheme();
+		if (!"http".equals(scheme) && !"https".equals(scheme)) {
+			return null;
+		}
+
+		String key = RenderCache.hash(ontologyIRI.toString());
+		File file = getLocalCopy(ontologyIRI);
+		boolean fresh = file.isFile() && System.currentTimeMillis() - file.lastModified() < this.ttl;
+		Metrics.getInstance().cacheLookup("imports", fresh);
+		if (fresh) {
+			return IRI.create(file);
+		}
+
+		SingleFlight<File>.Call call = this.downloads.join(key);
+		if (call.isLeader()) {
+			try {
+				download(new URL(ontologyIRI.toString()), file);
+				call.complete(file);
+			} catch (IOException e) {
+				call.fail(e);
+			} catch (InterruptedException e) {
+				call.fail(e);
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		try {
+			return IRI.create(call.getFuture().get());
+		} catch (ExecutionException e) {
+			// An outdated copy is better than none
+			return file.isFile() ? IRI.create(file) : null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	private File getLocalCopy(IRI ontologyIRI) {
+		return new File(this.directory, RenderCache.hash(ontologyIRI.toString()) + ".owl");
+	}
+
+	/**
+	 * Downloads the imports closure of the given ontologies, fetching all the
+	 * imports found so far in parallel.
+	 *
+	 * @param timeout
+	 *            the milliseconds each import may take, from the moment it is
+	 *            found
+	 * @return the local copies of the closure, and the ontologies that could
+	 *         not be downloaded, or not in time
+	 */
+	public Closure prefetch(Collection<IRI> imports, Executor executor, long timeout) {
+		Closure closure = new Closure(imports);
+		Set<IRI> unavailable = closure.unavailable;
+		if (!isEnabled()) {
+			return closure;
+		}
+
+		CompletionService<IRI> completion = new ExecutorCompletionService<IRI>(executor);
+		Set<IRI> seen = new HashSet<IRI>();
+		Map<IRI, Long> pending = new HashMap<IRI, Long>();
+		submit(imports, completion, seen, pending, timeout);
+
+		try {
+			while (!pending.isEmpty()) {
+				long now = System.currentTimeMillis();
+				long next = Long.MAX_VALUE;
+				for (Long deadline : pending.values()) {
+					next = Math.min(next, deadline);
+				}
+
+				Future<IRI> done = completion.poll(Math.max(0, next - now), TimeUnit.MILLISECONDS);
+				if (done == null) {
+					// The imports whose time is up are left to finish in the background
+					now = System.currentTimeMillis();
+					for (IRI late : new HashSet<IRI>(pending.keySet())) {
+						if (pending.get(late) <= now) {
+							pending.remove(late);
+							unavailable.add(late);
+						}
+					}
+					continue;
+				}
+
+				IRI fetched = done.get();
+				if (pending.remove(fetched) == null) {
+					continue;
+				}
+				File file = getLocalCopy(fetched);
+				if (!file.isFile()) {
+					unavailable.add(fetched);
+					continue;
+				}
+				// The copy is hashed as it is scanned for its own imports
+				MessageDigest digest = RenderCache.newDigest();
+				try (InputStream in = new DigestInputStream(new FileInputStream(file), digest)) {
+					submit(findImports(new InputStreamReader(in, StandardCharsets.ISO_8859_1)), completion, seen,
+							pending, timeout);
+				}
+				closure.files.put(fetched, file);
+				closure.hashes.put(fetched.toString(), RenderCache.toHex(digest));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			unavailable.addAll(pending.keySet());
+		} catch (ExecutionException | IOException e) {
+			// Whatever is still missing is left to OWLAPI
+			logger.warn("Could not prefetch the imports closure, the rest is left to OWLAPI", e);
+		}
+		return closure;
+	}
+
+	private void submit(Collection<IRI> imports, CompletionService<IRI> completion, Set<IRI> seen,
+			Map<IRI, Long> pending, long timeout) {
+		for (IRI ontologyIRI : imports) {
+			if (seen.add(ontologyIRI)) {
+				completion.submit(() -> {
+					getDocumentIRI(ontologyIRI);
+					return ontologyIRI;
+				});
+				pending.put(ontologyIRI, System.currentTimeMillis() + timeout);
+			}
+		}
+	}
+
+	/**
+	 * Finds the owl:imports of a source, decoded with its declared charset or
+	 * else UTF-8, as {@link #findImports(Reader)} does.
+	 */
+	public static Set<IRI> findImports(OntologySource source) {
+		Charset charset = source.getCharset();
+		try (Reader reader = new InputStreamReader(source.openStream(),
+				charset != null ? charset : StandardCharsets.UTF_8)) {
+			return findImports(reader);
+		} catch (IOException e) {
+			// The source is in memory
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Finds the owl:imports of a document in RDF/XML, Turtle, N-Triples or
+	 * JSON-LD without parsing it. Imports written in other ways are missed and
+	 * simply left to OWLAPI. The document is read a window at a time, rather
+	 * than decoded whole.
+	 */
+	public static Set<IRI> findImports(Reader document) throws IOException {
+		Set<IRI> imports = new LinkedHashSet<IRI>();
+		char[] window = new char[SCAN_WINDOW];
+		int length = 0;
+		boolean end = false;
+		while (!end) {
+			int read = document.read(window, length, window.length - length);
+			if (read < 0) {
+				end = true;
+			} else {
+				length += read;
+			}
+			if (end || length == window.length) {
+				findImports(CharBuffer.wrap(window, 0, length), imports);
+			}
+			if (!end && length == window.length) {
+				System.arraycopy(window, length - SCAN_OVERLAP, window, 0, SCAN_OVERLAP);
+				length = SCAN_OVERLAP;
+			}
+		}
+		return imports;
+	}
+
+	private static void findImports(CharSequence document, Set<IRI> imports) {
+		Matcher matcher = RDFXML_IMPORT.matcher(document);
+		while (matcher.find()) {
+			addImport(imports, matcher.group(1));
+		}
+		for (Pattern pattern : new Pattern[] { TURTLE_IMPORT, JSONLD_IMPORT }) {
+			matcher = pattern.matcher(document);
+			while (matcher.find()) {
+				Matcher values = IRI_VALUE.matcher(matcher.group(1));
+				while (values.find()) {
+					addImport(imports, values.group(1));
+				}
+			}
+		}
+	}
+
+	private static void addImport(Set<IRI> imports, String value) {
+		if (value.startsWith("http://") || value.startsWith("https://")) {
+			imports.add(IRI.create(value));
+		}
+	}
+
+	/**
+	 * The outcome of a {@link ImportsCache#prefetch prefetch}.
+	 */
+	public static class Closure {
+		private final Set<IRI> direct;
+		private final Set<IRI> unavailable = new HashSet<IRI>();
+		private final Map<IRI, File> files = new LinkedHashMap<IRI, File>();
+		private final Map<String, String> hashes = new TreeMap<String, String>();
+
+		private Closure(Collection<IRI> direct) {
+			this.direct = new HashSet<IRI>(direct);
+		}
+
+		/**
+		 * @return the ontologies that could not be downloaded, or not in time
+		 */
+		public Set<IRI> getUnavailable() {
+			return this.unavailable;
+		}
+
+		/**
+		 * @return the hash of the local copies of the closure and of the
+		 *         imports missing from it, which changes whenever the
+		 *         ontologies OWLAPI is given do; empty if nothing was
+		 *         prefetched
+		 */
+		public String hash() {
+			if (this.hashes.isEmpty() && this.unavailable.isEmpty()) {
+				return "";
+			}
+			StringBuilder text = new StringBuilder();
+			for (Map.Entry<String, String> entry : this.hashes.entrySet()) {
+				text.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+			}
+			for (IRI missing : new TreeSet<IRI>(this.unavailable)) {
+				text.append(missing).append(" unavailable\n");
+			}
+			return RenderCache.hash(text.toString());
+		}
+
+		/**
+		 * @return the size of the local copies of the whole closure
+		 */
+		public long getBytes() {
+			long bytes = 0;
+			for (File file : this.files.values()) {
+				bytes += file.length();
+			}
+			return bytes;
+		}
+
+		/**
+		 * @return the size of the local copies of the direct imports
+		 */
+		public long getDirectBytes() {
+			long bytes = 0;
+			for (Map.Entry<IRI, File> entry : this.files.entrySet()) {
+				if (this.direct.contains(entry.getKey())) {
+					bytes += entry.getValue().length();
+				}
+			}
+			return bytes;
+		}
+	}
+
+	private void download(URL url, File file) throws IOException, InterruptedException {
+		Semaphore host = this.hosts.computeIfAbsent(url.getHost(), name -> new Semaphore(this.perHost));
+		OntologySource content;
+		host.acquire();
+		try {
+			SourceExtractor extractor = new SourceExtractor(this.fetchCache);
+			extractor.addMimeTypes(MimeType.mimeTypes);
+			extractor.setMaxBytes(this.maxSourceBytes);
+			extractor.setTimeouts(this.connectTimeout, this.readTimeout);
+			extractor.setCircuitBreaker(this.breaker);
+			content = extractor.exec(url);
+		} finally {
+			host.release();
+		}
+
+		File temporary = File.createTempFile("import", ".tmp", this.directory);
+		try {
+			try (OutputStream out = new FileOutputStream(temporary)) {
+				content.writeTo(out);
+			}
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temporary.delete();
+		}
+
+		trim();
+	}
+
+	/*
+	 * Removes the least recently downloaded ontologies until the store fits its
+	 * budget.
+	 */
+	private synchronized void trim() {
+		File[] files = this.directory.listFiles((dir, name) -> name.endsWith(".owl"));
+		if (files == null) {
+			return;
+		}
+
+		long total = 0;
+		for (File file : files) {
+			total += file.length();
+		}
+		if (total <= this.maxDiskBytes) {
+			return;
+		}
+
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File file : files) {
+			if (total <= this.maxDiskBytes) {
+				break;
+			}
+			total -= file.length();
+			file.delete();
+		}
+	}
+}
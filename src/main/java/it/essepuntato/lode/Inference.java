@@ -0,0 +1,105 @@
+package it.essepuntato.lode;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.util.InferredAxiomGenerator;
+import org.semanticweb.owlapi.util.InferredClassAssertionAxiomGenerator;
+import org.semanticweb.owlapi.util.InferredDisjointClassesAxiomGenerator;
+import org.semanticweb.owlapi.util.InferredEquivalentClassAxiomGenerator;
+import org.semanticweb.owlapi.util.InferredEquivalentDataPropertiesAxiomGenerator;
+import org.semanticweb.owlapi.util.InferredEquivalentObjectPropertyAxiomGenerator;
+import org.semanticweb.owlapi.util.InferredInverseObjectPropertiesAxiomGenerator;
+import org.semanticweb.owlapi.util.InferredPropertyAssertionGenerator;
+import org.semanticweb.owlapi.util.InferredSubClassAxiomGenerator;
+import org.semanticweb.owlapi.util.InferredSubDataPropertyAxiomGenerator;
+import org.semanticweb.owlapi.util.InferredSubObjectPropertyAxiomGenerator;
+
+/**
+ * The kinds of inferred axioms added to the documentation when the reasoner
+ * is used, as named in the inferences request parameter.
+ *
+ * Each kind belongs to a family: the kinds of a family rely on the same
+ * reasoning task (classification, realization, property hierarchy) and are
+ * generated by the same reasoner, while the families are independent of one
+ * another.
+ */
+public enum Inference {
+	SUBCLASSES(Family.CLASSES, InferredSubClassAxiomGenerator::new),
+	EQUIVALENTCLASSES(Family.CLASSES, InferredEquivalentClassAxiomGenerator::new),
+	DISJOINTCLASSES(Family.CLASSES, InferredDisjointClassesAxiomGenerator::new),
+	CLASSASSERTIONS(Family.INDIVIDUALS, InferredClassAssertionAxiomGenerator::new),
+	PROPERTYASSERTIONS(Family.INDIVIDUALS, InferredPropertyAssertionGenerator::new),
+	SUBOBJECTPROPERTIES(Family.PROPERTIES, InferredSubObjectPropertyAxiomGenerator::new),
+	SUBDATAPROPERTIES(Family.PROPERTIES, InferredSubDataPropertyAxiomGenerator::new),
+	EQUIVALENTOBJECTPROPERTIES(Family.PROPERTIES, InferredEquivalentObjectPropertyAxiomGenerator::new),
+	EQUIVALENTDATAPROPERTIES(Family.PROPERTIES, InferredEquivalentDataPropertiesAxiomGenerator::new),
+	INVERSEOBJECTPROPERTIES(Family.PROPERTIES, InferredInverseObjectPropertiesAxiomGenerator::new);
+
+	public enum Family {
+		CLASSES, INDIVIDUALS, PROPERTIES
+	}
+
+	private final Family family;
+	private final Supplier<InferredAxiomGenerator<? extends OWLAxiom>> generator;
+
+	private Inference(Family family, Supplier<InferredAxiomGenerator<? extends OWLAxiom>> generator) {
+		this.family = family;
+		this.generator = generator;
+	}
+
+	public Family getFamily() {
+		return this.family;
+	}
+
+	/**
+	 * @return a new generator of the axioms of this kind
+	 */
+	public InferredAxiomGenerator<? extends OWLAxiom> newGenerator() {
+		return this.generator.get();
+	}
+
+	/**
+	 * Parses a comma-separated list of inference names, case insensitive. An
+	 * empty or missing list selects them all.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a name is not known, rather than reasoning for more than
+	 *             was asked
+	 */
+	public static Set<Inference> parse(String names) {
+		if (names == null || names.trim().isEmpty()) {
+			return Collections.unmodifiableSet(EnumSet.allOf(Inference.class));
+		}
+
+		Set<Inference> inferences = EnumSet.noneOf(Inference.class);
+		for (String name : names.split(",")) {
+			if (name.trim().isEmpty()) {
+				continue;
+			}
+			try {
+				inferences.add(valueOf(name.trim().toUpperCase(Locale.ROOT)));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Unknown inference \"" + name.trim() + "\", expected some of "
+						+ EnumSet.allOf(Inference.class).toString().toLowerCase(Locale.ROOT));
+			}
+		}
+		return Collections.unmodifiableSet(inferences.isEmpty() ? EnumSet.allOf(Inference.class) : inferences);
+	}
+
+	/**
+	 * @return the families of the given inferences, each needing a reasoner of
+	 *         its own when they are generated in parallel
+	 */
+	public static Set<Family> families(Set<Inference> inferences) {
+		Set<Family> families = EnumSet.noneOf(Family.class);
+		for (Inference inference : inferences) {
+			families.add(inference.getFamily());
+		}
+		return families;
+	}
+}
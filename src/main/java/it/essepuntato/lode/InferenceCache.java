@@ -0,0 +1,142 @@
+package it.essepuntato.lode;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+
+import org.semanticweb.owlapi.formats.RDFXMLDocumentFormat;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyStorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk store of the ontologies produced by Pellet, as RDF/XML ready to be
+ * transformed.
+ *
+ * Entries are keyed by the hash of the source they were inferred from and of
+ * its imports (see {@link Renderer#hash}), and by the options that change what
+ * the reasoner is given, so an ontology that has not changed is classified
+ * only once, whatever the language it is later rendered in.
+ */
+public class InferenceCache {
+	private static final Logger logger = LoggerFactory.getLogger(InferenceCache.class);
+
+	private static InferenceCache instance = null;
+
+	private final File directory;
+	private final long maxDiskBytes;
+
+	private InferenceCache(LODEConfiguration conf) {
+		String path = conf.getInferenceCacheDirectory();
+		File directory = path == null || path.isEmpty()
+				? new File(System.getProperty("java.io.tmpdir"), "lode-inferences")
+				: new File(path);
+		if (conf.getInferenceCacheMaxDiskBytes() <= 0 || (!directory.isDirectory() && !directory.mkdirs())) {
+			directory = null;
+		}
+		this.directory = directory;
+		this.maxDiskBytes = conf.getInferenceCacheMaxDiskBytes();
+	}
+
+	public static synchronized InferenceCache getInstance(LODEConfiguration conf) {
+		if (instance == null) {
+			instance = new InferenceCache(conf);
+		}
+		return instance;
+	}
+
+	public boolean isEnabled() {
+		return this.directory != null;
+	}
+
+	/**
+	 * @param sourceHash
+	 *            the hash of the source and of its imports
+	 */
+	public static String key(String sourceHash, boolean considerImportedOntologies, boolean considerImportedClosure,
+			Set<Inference> inferences) {
+		return RenderCache.hash(sourceHash + "|" + considerImportedOntologies + "|" + considerImportedClosure + "|"
+				+ inferences);
+	}
+
+	/**
+	 * @return the RDF/XML of the inferred ontology, or null; the stream is
+	 *         opened here, so that it can still be read if the entry is
+	 *         trimmed before the caller gets to it
+	 */
+	public FileInputStream get(String key) {
+		if (!isEnabled()) {
+			return null;
+		}
+		File file = new File(this.directory, key + ".rdf");
+		try {
+			FileInputStream in = new FileInputStream(file);
+			file.setLastModified(System.currentTimeMillis());
+			return in;
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
+
+	public void put(String key, OWLOntology ontology) {
+		if (!isEnabled()) {
+			return;
+		}
+
+		try {
+			File temporary = File.createTempFile("inference", ".tmp", this.directory);
+			try {
+				try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temporary))) {
+					ontology.getOWLOntologyManager().saveOntology(ontology, new RDFXMLDocumentFormat(), out);
+				}
+				Files.move(temporary.toPath(), new File(this.directory, key + ".rdf").toPath(),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				temporary.delete();
+			}
+		} catch (IOException | OWLOntologyStorageException e) {
+			logger.warn("Could not keep the inferred ontology {}", key, e);
+			return;
+		}
+
+		trim();
+	}
+
+	/*
+	 * Removes the least recently used ontologies until the store fits its
+	 * budget.
+	 */
+	private synchronized void trim() {
+		File[] files = this.directory.listFiles((dir, name) -> name.endsWith(".rdf"));
+		if (files == null) {
+			return;
+		}
+
+		long total = 0;
+		for (File file : files) {
+			total += file.length();
+		}
+		if (total <= this.maxDiskBytes) {
+			return;
+		}
+
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File file : files) {
+			if (total <= this.maxDiskBytes) {
+				break;
+			}
+			total -= file.length();
+			file.delete();
+		}
+	}
+}
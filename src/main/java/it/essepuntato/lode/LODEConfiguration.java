@@ -1,6 +1,9 @@
 package it.essepuntato.lode;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.commons.configuration2.Configuration;
@@ -15,8 +18,49 @@ public class LODEConfiguration {
 	private String baseUrl = "/lode";
 	private String buildDate = "";
 	private String buildVersion = "";
+	private int circuitBreakerCooldown = 60;
+	private int circuitBreakerFailures = 5;
+	private long closureMaxBytes = 16L * 1024 * 1024;
+	private int connectTimeout = 10;
 	private String defaultLang = "en";
+	private String fetchCacheDirectory = "";
+	private long fetchCacheMaxDiskBytes = 1024L * 1024 * 1024;
+	private String importsCacheDirectory = "";
+	private long importsCacheMaxDiskBytes = 256L * 1024 * 1024;
+	private int importsCacheTtl = 24 * 60 * 60;
+	private int importsPerHost = 4;
+	private int importTimeout = 30;
+	private String inferenceCacheDirectory = "";
+	private long inferenceCacheMaxDiskBytes = 1024L * 1024 * 1024;
+	private int lazyEntities = 5000;
+	private int lazyPageSize = 200;
+	private long maxSourceBytes = 128L * 1024 * 1024;
 	private int maxTentative = 3;
+	private int negativeCacheTtl = 60;
+	private long owlapiMaxBytes = 64L * 1024 * 1024;
+	private int owlapiRenderThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	private boolean parallelReasoning = false;
+	private List<String> prerender = new ArrayList<String>();
+	private int prerenderInterval = 15 * 60;
+	private int prerenderJitter = 60;
+	private int prerenderThreads = 1;
+	private int readTimeout = 30;
+	private int reasonerMaxAxioms = 200000;
+	private long reasonerMaxBytes = 8L * 1024 * 1024;
+	private int reasonerThreads = Runtime.getRuntime().availableProcessors();
+	private int reasonerTimeout = 60;
+	private String renderCacheDirectory = "";
+	private long renderCacheMaxBytes = 64L * 1024 * 1024;
+	private long renderCacheMaxDiskBytes = 1024L * 1024 * 1024;
+	private int renderCacheTtl = 24 * 60 * 60;
+	private int renderQueueLength = 50;
+	private int renderThreads = Runtime.getRuntime().availableProcessors();
+	private int renderTimeout = 120;
+	private int retryAfter = 30;
+	private int retryBackoff = 500;
+	private long sharedPageMaxBytes = 16L * 1024 * 1024;
+	private int slowRenderThreshold = 30;
+	private long treeCacheMaxBytes = 256L * 1024 * 1024;
 	private String vendorCss = "";
 	private String vendorName = "";
 	private String vendorUrl = "";
@@ -44,8 +88,55 @@ public class LODEConfiguration {
 			if (externalUrl != null && ! externalUrl.isEmpty()){
 				this.baseUrl = externalUrl;
 			}
+			this.circuitBreakerCooldown = config.getInt("circuitBreakerCooldown", this.circuitBreakerCooldown);
+			this.circuitBreakerFailures = config.getInt("circuitBreakerFailures", this.circuitBreakerFailures);
+			this.closureMaxBytes = config.getLong("closureMaxBytes", this.closureMaxBytes);
+			this.connectTimeout = config.getInt("connectTimeout", this.connectTimeout);
 			this.defaultLang = config.getString("defaultLang", this.defaultLang);
+			this.fetchCacheDirectory = config.getString("fetchCacheDirectory", this.fetchCacheDirectory);
+			this.fetchCacheMaxDiskBytes = config.getLong("fetchCacheMaxDiskBytes", this.fetchCacheMaxDiskBytes);
+			this.importsCacheDirectory = config.getString("importsCacheDirectory", this.importsCacheDirectory);
+			this.importsCacheMaxDiskBytes = config.getLong("importsCacheMaxDiskBytes", this.importsCacheMaxDiskBytes);
+			this.importsCacheTtl = config.getInt("importsCacheTtl", this.importsCacheTtl);
+			this.importsPerHost = config.getInt("importsPerHost", this.importsPerHost);
+			this.importTimeout = config.getInt("importTimeout", this.importTimeout);
+			this.inferenceCacheDirectory = config.getString("inferenceCacheDirectory", this.inferenceCacheDirectory);
+			this.inferenceCacheMaxDiskBytes = config.getLong("inferenceCacheMaxDiskBytes", this.inferenceCacheMaxDiskBytes);
+			this.lazyEntities = config.getInt("lazyEntities", this.lazyEntities);
+			this.lazyPageSize = config.getInt("lazyPageSize", this.lazyPageSize);
+			this.maxSourceBytes = config.getLong("maxSourceBytes", this.maxSourceBytes);
 			this.maxTentative = config.getInt("maxTentative", this.maxTentative);
+			this.negativeCacheTtl = config.getInt("negativeCacheTtl", this.negativeCacheTtl);
+			this.owlapiMaxBytes = config.getLong("owlapiMaxBytes", this.owlapiMaxBytes);
+			this.owlapiRenderThreads = config.getInt("owlapiRenderThreads", this.owlapiRenderThreads);
+			this.parallelReasoning = config.getBoolean("parallelReasoning", this.parallelReasoning);
+			for (String entries : config.getList(String.class, "prerender", Collections.<String>emptyList())) {
+				for (String entry : entries.split(";")) {
+					if (!entry.trim().isEmpty()) {
+						this.prerender.add(entry.trim());
+					}
+				}
+			}
+			this.prerenderInterval = config.getInt("prerenderInterval", this.prerenderInterval);
+			this.prerenderJitter = config.getInt("prerenderJitter", this.prerenderJitter);
+			this.prerenderThreads = config.getInt("prerenderThreads", this.prerenderThreads);
+			this.readTimeout = config.getInt("readTimeout", this.readTimeout);
+			this.reasonerMaxAxioms = config.getInt("reasonerMaxAxioms", this.reasonerMaxAxioms);
+			this.reasonerMaxBytes = config.getLong("reasonerMaxBytes", this.reasonerMaxBytes);
+			this.reasonerThreads = config.getInt("reasonerThreads", this.reasonerThreads);
+			this.reasonerTimeout = config.getInt("reasonerTimeout", this.reasonerTimeout);
+			this.renderCacheDirectory = config.getString("renderCacheDirectory", this.renderCacheDirectory);
+			this.renderCacheMaxBytes = config.getLong("renderCacheMaxBytes", this.renderCacheMaxBytes);
+			this.renderCacheMaxDiskBytes = config.getLong("renderCacheMaxDiskBytes", this.renderCacheMaxDiskBytes);
+			this.renderCacheTtl = config.getInt("renderCacheTtl", this.renderCacheTtl);
+			this.renderQueueLength = config.getInt("renderQueueLength", this.renderQueueLength);
+			this.renderThreads = config.getInt("renderThreads", this.renderThreads);
+			this.renderTimeout = config.getInt("renderTimeout", this.renderTimeout);
+			this.retryAfter = config.getInt("retryAfter", this.retryAfter);
+			this.retryBackoff = config.getInt("retryBackoff", this.retryBackoff);
+			this.sharedPageMaxBytes = config.getLong("sharedPageMaxBytes", this.sharedPageMaxBytes);
+			this.slowRenderThreshold = config.getInt("slowRenderThreshold", this.slowRenderThreshold);
+			this.treeCacheMaxBytes = config.getLong("treeCacheMaxBytes", this.treeCacheMaxBytes);
 			this.vendorCss = config.getString("vendorCss", this.vendorCss);
 			this.vendorName = config.getString("vendorName", this.vendorName);
 			this.vendorUrl = config.getString("vendorUrl", this.webvowl);
@@ -85,6 +176,17 @@ public class LODEConfiguration {
 		return instance;
 	}
 
+	/**
+	 * Reads the configuration without keeping it as the shared instance, for
+	 * the code that runs outside any request: with no request to tell the host
+	 * the application is served from, its base URL is the context path alone
+	 * (unless externalURL is set), and the shared instance must not be stuck
+	 * with it.
+	 */
+	public static LODEConfiguration load(ServletContext context) {
+		return new LODEConfiguration(context.getRealPath("."), context.getContextPath());
+	}
+
 
 	public String getBaseUrl() {
         return this.baseUrl;
@@ -98,6 +200,39 @@ public class LODEConfiguration {
         return this.buildVersion;
     }
 
+	/**
+	 * @return the number of seconds downloads from a host fail straight away
+	 *         once its circuit is open
+	 */
+	public int getCircuitBreakerCooldown() {
+		return this.circuitBreakerCooldown;
+	}
+
+	/**
+	 * @return the number of transient failures in a row after which downloads
+	 *         from a host fail straight away, 0 never to stop
+	 */
+	public int getCircuitBreakerFailures() {
+		return this.circuitBreakerFailures;
+	}
+
+	/**
+	 * @return the size in bytes of a source and its imports closure above
+	 *         which the closure is reduced to the direct imports, 0 for no
+	 *         limit
+	 */
+	public long getClosureMaxBytes() {
+		return this.closureMaxBytes;
+	}
+
+	/**
+	 * @return the seconds allowed to connect to the server of a source or an
+	 *         import; 0 means no limit
+	 */
+	public int getConnectTimeout() {
+		return this.connectTimeout;
+	}
+
 	public String getCssLocation() {
         return this.baseUrl + "/";
     }
@@ -110,22 +245,327 @@ public class LODEConfiguration {
         return this.baseUrl + "/extract";
     }
 
+	public String getFetchCacheDirectory() {
+		return this.fetchCacheDirectory;
+	}
+
+	public long getFetchCacheMaxDiskBytes() {
+		return this.fetchCacheMaxDiskBytes;
+	}
+
+	public String getFragmentUrl() {
+        return this.baseUrl + "/fragment";
+    }
+
 	public String getHomeUrl() {
         return this.baseUrl + "/";
     }
 
+	/**
+	 * @return the directory imported ontologies are kept in, by default a
+	 *         directory in java.io.tmpdir
+	 */
+	public String getImportsCacheDirectory() {
+		return this.importsCacheDirectory;
+	}
+
+	/**
+	 * @return the number of bytes the imported ontologies may take on disk
+	 */
+	public long getImportsCacheMaxDiskBytes() {
+		return this.importsCacheMaxDiskBytes;
+	}
+
+	/**
+	 * @return the number of seconds an imported ontology is used before it is
+	 *         downloaded (or revalidated) again; 0 disables the cache
+	 */
+	public int getImportsCacheTtl() {
+		return this.importsCacheTtl;
+	}
+
+	/**
+	 * @return the number of imported ontologies downloaded at the same time from
+	 *         one host
+	 */
+	public int getImportsPerHost() {
+		return this.importsPerHost;
+	}
+
+	/**
+	 * @return the number of seconds an imported ontology may take to download before
+	 *         it is left out of the render
+	 */
+	public int getImportTimeout() {
+		return this.importTimeout;
+	}
+
+	/**
+	 * @return the directory inferred ontologies are kept in, by default a
+	 *         directory in java.io.tmpdir
+	 */
+	public String getInferenceCacheDirectory() {
+		return this.inferenceCacheDirectory;
+	}
+
+	/**
+	 * @return the number of bytes the inferred ontologies may take on disk, 0
+	 *         to disable the cache
+	 */
+	public long getInferenceCacheMaxDiskBytes() {
+		return this.inferenceCacheMaxDiskBytes;
+	}
+
+	/**
+	 * @return the number of entities above which the entity sections of a page
+	 *         are loaded on demand, a page of entities at a time, rather than
+	 *         rendered with it; 0 never
+	 */
+	public int getLazyEntities() {
+		return this.lazyEntities;
+	}
+
+	/**
+	 * @return the number of entities in each page of an entity section loaded
+	 *         on demand
+	 */
+	public int getLazyPageSize() {
+		return this.lazyPageSize;
+	}
+
+	/**
+	 * @return the maximum size in bytes of a downloaded source, 0 for no limit
+	 */
+	public long getMaxSourceBytes() {
+		return this.maxSourceBytes;
+	}
+
+	/**
+	 * @return the number of times a source is downloaded before giving up on
+	 *         transient network errors; other failures are not retried
+	 */
 	public int getMaxTentative() {
 		return this.maxTentative;
 	}
 
+	/**
+	 * @return the number of seconds a failure that would happen again is
+	 *         answered without trying again, 0 always to try
+	 */
+	public int getNegativeCacheTtl() {
+		return this.negativeCacheTtl;
+	}
+
+	/**
+	 * @return the size in bytes of a source above which it is documented as
+	 *         published rather than loaded with OWLAPI, 0 for no limit
+	 */
+	public long getOwlapiMaxBytes() {
+		return this.owlapiMaxBytes;
+	}
+
+	/**
+	 * @return the number of threads rendering requests that need OWLAPI
+	 */
+	public int getOwlapiRenderThreads() {
+		return this.owlapiRenderThreads;
+	}
+
 	public String getPelletPropertiesUrl() {
         return this.baseUrl + "/pellet.properties";
     }
 
+	/**
+	 * @return the pages rendered at startup and kept up to date in the
+	 *         background, as entries such as "URL reasoner=true lang=en,it"
+	 *         (see {@link RenderRequest#fromEntry(String, String)})
+	 */
+	public List<String> getPrerender() {
+		return this.prerender;
+	}
+
+	/**
+	 * @return the number of seconds between two refreshes of a pre-rendered page
+	 */
+	public int getPrerenderInterval() {
+		return this.prerenderInterval;
+	}
+
+	/**
+	 * @return the largest number of seconds a refresh is moved by at random, so
+	 *         that the pre-rendered pages are not all refreshed at once
+	 */
+	public int getPrerenderJitter() {
+		return this.prerenderJitter;
+	}
+
+	/**
+	 * @return the number of pages pre-rendered at the same time
+	 */
+	public int getPrerenderThreads() {
+		return this.prerenderThreads;
+	}
+
+	/**
+	 * @return the seconds allowed to wait for each read from the server of a
+	 *         source or an import; 0 means no limit
+	 */
+	public int getReadTimeout() {
+		return this.readTimeout;
+	}
+
+	/**
+	 * @return the number of axioms of an ontology above which the reasoner is
+	 *         not run on it, 0 for no limit
+	 */
+	public int getReasonerMaxAxioms() {
+		return this.reasonerMaxAxioms;
+	}
+
+	/**
+	 * @return the size in bytes of a source, with the imports merged into it,
+	 *         above which the reasoner is not run on it, 0 for no limit
+	 */
+	public long getReasonerMaxBytes() {
+		return this.reasonerMaxBytes;
+	}
+
+	/**
+	 * @return whether the families of inferences of a render may each get a
+	 *         reasoner of their own, run in parallel on the reasoner threads,
+	 *         rather than all be generated by a single reasoner; off by
+	 *         default, as the extra knowledge bases have not been measured to
+	 *         pay off
+	 */
+	public boolean isParallelReasoning() {
+		return this.parallelReasoning;
+	}
+
+	/**
+	 * Enables or disables parallel reasoning, for the benchmarks.
+	 */
+	void setParallelReasoning(boolean parallelReasoning) {
+		this.parallelReasoning = parallelReasoning;
+	}
+
+	/**
+	 * @return the number of threads running reasoner tasks, shared by all the
+	 *         renders; with 1, a render never gets more than one reasoner
+	 */
+	public int getReasonerThreads() {
+		return this.reasonerThreads;
+	}
+
+	/**
+	 * Changes the number of reasoner threads, for the benchmarks; it is read
+	 * when the {@link RenderExecutor} is created.
+	 */
+	void setReasonerThreads(int reasonerThreads) {
+		this.reasonerThreads = reasonerThreads;
+	}
+
+	/**
+	 * @return the number of seconds Pellet may reason before the asserted
+	 *         ontology is documented instead
+	 */
+	public int getReasonerTimeout() {
+		return this.reasonerTimeout;
+	}
+
+	public String getRenderCacheDirectory() {
+		return this.renderCacheDirectory;
+	}
+
+	public long getRenderCacheMaxBytes() {
+		return this.renderCacheMaxBytes;
+	}
+
+	public long getRenderCacheMaxDiskBytes() {
+		return this.renderCacheMaxDiskBytes;
+	}
+
+	/**
+	 * @return the number of seconds a rendered page is kept, 0 for no limit
+	 */
+	public int getRenderCacheTtl() {
+		return this.renderCacheTtl;
+	}
+
+	/**
+	 * @return the number of renders that may wait for a thread, per pool
+	 */
+	public int getRenderQueueLength() {
+		return this.renderQueueLength;
+	}
+
+	/**
+	 * @return the number of threads rendering requests that need XSLT only
+	 */
+	public int getRenderThreads() {
+		return this.renderThreads;
+	}
+
+	/**
+	 * @return the number of seconds a request may take before it is abandoned
+	 */
+	public int getRenderTimeout() {
+		return this.renderTimeout;
+	}
+
+	/**
+	 * @return the number of seconds clients are asked to wait when the server is
+	 *         saturated
+	 */
+	public int getRetryAfter() {
+		return this.retryAfter;
+	}
+
+	/**
+	 * @return the number of milliseconds before the first new attempt at a
+	 *         download, doubled at each attempt and randomised
+	 */
+	public int getRetryBackoff() {
+		return this.retryBackoff;
+	}
+
+	/**
+	 * @return the size of the largest page that is handed to concurrent
+	 *         identical requests instead of being rendered again for each
+	 */
+	public long getSharedPageMaxBytes() {
+		return this.sharedPageMaxBytes;
+	}
+
+	/**
+	 * @return the number of seconds above which a render is logged with the
+	 *         time spent in each stage, or 0 not to log them
+	 */
+	public int getSlowRenderThreshold() {
+		return this.slowRenderThreshold;
+	}
+
 	public String getSourceUrl() {
         return this.baseUrl + "/source";
     }
 
+	/**
+	 * @return the number of bytes of heap the documents kept in memory for
+	 *         the other languages may take, 0 to disable the cache; a
+	 *         document takes about 1.5 to 2.5 times the RDF/XML it is parsed
+	 *         from
+	 */
+	public long getTreeCacheMaxBytes() {
+		return this.treeCacheMaxBytes;
+	}
+
+	/**
+	 * Changes the size of the tree cache, for the benchmarks; it is read when
+	 * the {@link TreeCache} is created.
+	 */
+	void setTreeCacheMaxBytes(long treeCacheMaxBytes) {
+		this.treeCacheMaxBytes = treeCacheMaxBytes;
+	}
+
 	public String getVendorCss() {
 		return this.vendorCss;
 	}
@@ -16,19 +16,20 @@
 package it.essepuntato.lode;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -41,60 +42,25 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.*;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 
 import org.mindswap.pellet.PelletOptions;
-import org.semanticweb.owlapi.apibinding.OWLManager;
-import org.semanticweb.owlapi.formats.RDFXMLDocumentFormat;
-import org.semanticweb.owlapi.io.StringDocumentTarget;
-import org.semanticweb.owlapi.model.AddImport;
-import org.semanticweb.owlapi.model.AddOntologyAnnotation;
-import org.semanticweb.owlapi.model.IRI;
-import org.semanticweb.owlapi.model.OWLAnnotation;
-import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
-import org.semanticweb.owlapi.model.OWLAnnotationProperty;
-import org.semanticweb.owlapi.model.OWLAxiom;
-import org.semanticweb.owlapi.model.OWLClass;
-import org.semanticweb.owlapi.model.OWLDataProperty;
-import org.semanticweb.owlapi.model.OWLDatatype;
-import org.semanticweb.owlapi.model.OWLEntity;
-import org.semanticweb.owlapi.model.OWLImportsDeclaration;
-import org.semanticweb.owlapi.model.OWLNamedIndividual;
-import org.semanticweb.owlapi.model.OWLObjectProperty;
-import org.semanticweb.owlapi.model.OWLOntology;
-import org.semanticweb.owlapi.model.OWLOntologyCreationException;
-import org.semanticweb.owlapi.model.OWLOntologyID;
-import org.semanticweb.owlapi.model.OWLOntologyManager;
-import org.semanticweb.owlapi.model.OWLOntologyStorageException;
-import org.semanticweb.owlapi.search.EntitySearcher;
-import org.semanticweb.owlapi.util.InferredAxiomGenerator;
-import org.semanticweb.owlapi.util.InferredClassAssertionAxiomGenerator;
-import org.semanticweb.owlapi.util.InferredDisjointClassesAxiomGenerator;
-import org.semanticweb.owlapi.util.InferredEquivalentClassAxiomGenerator;
-import org.semanticweb.owlapi.util.InferredEquivalentDataPropertiesAxiomGenerator;
-import org.semanticweb.owlapi.util.InferredEquivalentObjectPropertyAxiomGenerator;
-import org.semanticweb.owlapi.util.InferredInverseObjectPropertiesAxiomGenerator;
-import org.semanticweb.owlapi.util.InferredOntologyGenerator;
-import org.semanticweb.owlapi.util.InferredPropertyAssertionGenerator;
-import org.semanticweb.owlapi.util.InferredSubClassAxiomGenerator;
-import org.semanticweb.owlapi.util.InferredSubDataPropertyAxiomGenerator;
-import org.semanticweb.owlapi.util.InferredSubObjectPropertyAxiomGenerator;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
-import com.clarkparsia.pellet.owlapiv3.PelletReasoner;
-import com.clarkparsia.pellet.owlapiv3.PelletReasonerFactory;
-
 import org.owasp.encoder.Encode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Servlet implementation class LodeServlet
  */
 public class LodeServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
+	private static final Logger logger = LoggerFactory.getLogger(LodeServlet.class);
 	private LODEConfiguration conf;
+	private final transient SingleFlight<byte[]> flights = new SingleFlight<byte[]>();
 
 	/**
 	 * @see HttpServlet#HttpServlet()
@@ -104,6 +70,47 @@ public class LodeServlet extends HttpServlet {
 	}
 
 	/**
+	 * Compiles the extraction stylesheet and loads the Pellet options ahead of
+	 * the first request.
+	 *
+	 * @see HttpServlet#init()
+	 */
+	@Override
+	public void init() throws ServletException {
+		super.init();
+		try {
+			URL pelletOptions = getServletContext().getResource("/pellet.properties");
+			if (pelletOptions != null) {
+				PelletOptions.load(pelletOptions);
+			}
+		} catch (IOException e) {
+			// Pellet keeps its defaults
+			logger.warn("Could not load the Pellet options, keeping its defaults", e);
+		}
+		String xsltPath = getServletContext().getRealPath("extraction.xsl");
+		if (xsltPath != null) {
+			try {
+				StylesheetCache.getInstance(xsltPath).refresh();
+			} catch (TransformerException e) {
+				// The stylesheet will be compiled again (and its error reported) on demand
+				logger.warn("Could not compile the stylesheet {}", xsltPath, e);
+			}
+		}
+	}
+
+	/**
+	 * @see HttpServlet#destroy()
+	 */
+	@Override
+	public void destroy() {
+		RenderExecutor.shutdown();
+		super.destroy();
+	}
+
+	/**
+	 * The page is produced on the render pools; the container thread returns as
+	 * soon as the work has been handed over.
+	 *
 	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse
 	 *      response)
 	 */
@@ -112,58 +119,303 @@ public class LodeServlet extends HttpServlet {
 		resolveConfiguration(request);
 		response.setContentType("text/html");
 		response.setCharacterEncoding("UTF-8");
-		PrintWriter out = response.getWriter();
 
-		SourceExtractor extractor = new SourceExtractor();
-		extractor.addMimeTypes(MimeType.mimeTypes);
+		RenderRequest renderRequest;
+		try {
+			renderRequest = RenderRequest.fromParameters(request, this.conf.getDefaultLang());
+		} catch (IllegalArgumentException e) {
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			response.getOutputStream().write(getErrorPage(e).getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+		AsyncResponse async = new AsyncResponse(request, response);
+
+		/*
+		 * Identical requests arriving while the page is being rendered wait for
+		 * that render instead of starting their own.
+		 */
+		SingleFlight<byte[]>.Call call = this.flights.join(renderRequest.getCacheKey());
+		if (call.isLeader()) {
+			serve(renderRequest, async, call);
+		} else {
+			follow(renderRequest, async, call);
+		}
+	}
+
+	/*
+	 * Renders the page of the request on the render pools, within the render
+	 * timeout, and completes the response. The outcome is passed on to the
+	 * requests waiting on the call, if any.
+	 */
+	private void serve(RenderRequest renderRequest, AsyncResponse async, SingleFlight<byte[]>.Call call)
+			throws IOException {
+		RenderExecutor executor = RenderExecutor.getInstance(this.conf);
+		HttpServletResponse response = async.getResponse();
+		GuardedResponse target = new GuardedResponse(response);
+		AtomicReference<Future<?>> render = new AtomicReference<Future<?>>();
+		RenderTrace trace = new RenderTrace(renderRequest.getUrl());
+
+		ScheduledFuture<?> deadline = executor.schedule(() -> {
+			if (async.claim()) {
+				Future<?> running = render.get();
+				if (running != null) {
+					running.cancel(true);
+				}
+				target.detach();
+				trace.finish("timeout", this.conf.getSlowRenderThreshold());
+				fail(call, new TimeoutException());
+				try {
+					if (!response.isCommitted()) {
+						response.reset();
+						response.setContentType("text/html");
+						response.setCharacterEncoding("UTF-8");
+						sendTimeout(response);
+					}
+				} catch (IOException e) {
+					logger.warn("Could not send the timeout of {}", renderRequest.getUrl(), e);
+				} finally {
+					async.complete();
+				}
+			}
+		}, this.conf.getRenderTimeout(), TimeUnit.SECONDS);
+
+		try {
+			render.set(executor.submit(renderRequest, () -> {
+				try {
+					byte[] page = render(renderRequest, target, trace);
+					if (call != null) {
+						call.complete(page);
+					}
+				} catch (Throwable e) {
+					fail(call, e);
+					if (e instanceof Error) {
+						throw (Error) e;
+					}
+				} finally {
+					// Whatever happened, the requests waiting on the call are released
+					fail(call, new IOException("The documentation could not be generated."));
+					if (async.claim()) {
+						deadline.cancel(false);
+						async.complete();
+					}
+				}
+				return null;
+			}));
+		} catch (RejectedExecutionException e) {
+			Metrics.getInstance().outcome("busy");
+			fail(call, e);
+			if (async.claim()) {
+				deadline.cancel(false);
+				try {
+					sendBusy(response);
+				} finally {
+					async.complete();
+				}
+			}
+		}
+	}
 
-		int maxTentative = this.conf.getMaxTentative();
-		for (int i = 0; i < maxTentative; i++) {
+	private static void fail(SingleFlight<byte[]>.Call call, Throwable cause) {
+		if (call != null) {
+			call.fail(cause);
+		}
+	}
+
+	/*
+	 * Answers the request with the outcome of an identical render in flight,
+	 * or renders it on its own if that page was too large to be kept.
+	 */
+	private void follow(RenderRequest renderRequest, AsyncResponse async, SingleFlight<byte[]>.Call call) {
+		RenderExecutor executor = RenderExecutor.getInstance(this.conf);
+		HttpServletResponse response = async.getResponse();
+
+		ScheduledFuture<?> deadline = executor.schedule(() -> {
+			if (async.claim()) {
+				try {
+					sendTimeout(response);
+				} catch (IOException e) {
+					logger.warn("Could not send the timeout of {}", renderRequest.getUrl(), e);
+				} finally {
+					async.complete();
+				}
+			}
+		}, this.conf.getRenderTimeout(), TimeUnit.SECONDS);
+
+		call.getFuture().whenCompleteAsync((page, failure) -> {
+			if (failure == null && page == null) {
+				// The render starts over, with a deadline of its own
+				if (deadline.cancel(false)) {
+					try {
+						serve(renderRequest, async, null);
+					} catch (IOException e) {
+						logger.warn("Could not render {} again", renderRequest.getUrl(), e);
+						async.complete();
+					}
+				}
+				return;
+			}
+			if (!async.claim()) {
+				return;
+			}
+			deadline.cancel(false);
 			try {
-				String stringURL = request.getParameter("url");
+				if (failure instanceof RejectedExecutionException) {
+					sendBusy(response);
+				} else if (failure instanceof TimeoutException) {
+					sendTimeout(response);
+				} else if (failure != null) {
+					response.getOutputStream().write(
+							getErrorPage(failure instanceof Exception ? (Exception) failure : new Exception(failure))
+									.getBytes(StandardCharsets.UTF_8));
+				} else {
+					response.getOutputStream().write(page);
+				}
+			} catch (IOException e) {
+				logger.warn("Could not send the documentation of {}", renderRequest.getUrl(), e);
+			}
+			async.complete();
+		}, executor::execute);
+	}
 
-				URL ontologyURL = new URL(stringURL);
-				HttpURLConnection.setFollowRedirects(true);
+	private void sendBusy(HttpServletResponse response) throws IOException {
+		response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		response.setHeader("Retry-After", Integer.toString(this.conf.getRetryAfter()));
+		response.getOutputStream().write(getErrorPage(
+				new Exception("The server is too busy to generate the documentation, please try again later."))
+				.getBytes(StandardCharsets.UTF_8));
+	}
 
-				String content = "";
+	private void sendTimeout(HttpServletResponse response) throws IOException {
+		response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		response.getOutputStream().write(getErrorPage(new Exception(
+				"The documentation could not be generated within " + this.conf.getRenderTimeout() + " seconds."))
+				.getBytes(StandardCharsets.UTF_8));
+	}
 
-				boolean useOWLAPI = new Boolean(request.getParameter("owlapi"));
-				boolean considerImportedOntologies = new Boolean(request.getParameter("imported"));
-				boolean considerImportedClosure = new Boolean(request.getParameter("closure"));
-				boolean useReasoner = new Boolean(request.getParameter("reasoner"));
+	/*
+	 * Produces the documentation page of the request and writes it (or the
+	 * error page) to the response. Only the download is attempted again, on
+	 * transient network errors; a failure to render the source is remembered
+	 * for that source. Returns what was written, or null if it was too large
+	 * to be kept.
+	 */
+	private byte[] render(RenderRequest request, GuardedResponse response, RenderTrace trace) throws IOException {
+		Metrics metrics = Metrics.getInstance();
+		metrics.renderStarted();
+		String outcome = "error";
+		try {
+			byte[] page = render(request, response, trace, metrics);
+			outcome = trace.isFailed() ? "error" : "ok";
+			return page;
+		} finally {
+			metrics.renderFinished();
+			trace.finish(outcome, this.conf.getSlowRenderThreshold());
+		}
+	}
 
-				if (considerImportedOntologies || considerImportedClosure || useReasoner) {
-					useOWLAPI = true;
-				}
+	private byte[] render(RenderRequest request, GuardedResponse response, RenderTrace trace, Metrics metrics)
+			throws IOException {
+		OutputStream out = response.getOutputStream();
 
-				String lang = request.getParameter("lang");
-				if (lang == null || lang.isEmpty()) {
-					lang = this.conf.getDefaultLang();
-				}
+		SourceExtractor extractor = new SourceExtractor(FetchCache.getInstance(this.conf));
+		extractor.addMimeTypes(MimeType.mimeTypes);
+		extractor.setMaxBytes(this.conf.getMaxSourceBytes());
+		extractor.setTimeouts(this.conf.getConnectTimeout() * 1000, this.conf.getReadTimeout() * 1000);
+		extractor.setRetries(this.conf.getMaxTentative(), this.conf.getRetryBackoff());
+		extractor.setCircuitBreaker(HostCircuitBreaker.getInstance(this.conf));
+		extractor.setNegativeCache(NegativeCache.getInstance(this.conf));
+		extractor.setTrace(trace);
+		RenderCache cache = RenderCache.getInstance(this.conf);
+		NegativeCache failures = NegativeCache.getInstance(this.conf);
+		Renderer renderer = new Renderer(this.conf, trace);
+		long cacheMaxBytes = cache.isEnabled() ? this.conf.getRenderCacheMaxBytes() : 0;
+
+		byte[] page = null;
+		try {
+			String stringURL = request.getUrl();
+
+			URL ontologyURL = new URL(stringURL);
+			HttpURLConnection.setFollowRedirects(true);
+
+			OntologySource source = null;
+
+			/*
+			 * The source is always downloaded (or revalidated) first, so that
+			 * an unchanged ontology can be served from the cache without
+			 * being parsed or transformed again. A page generated with OWLAPI
+			 * depends on the imports too, found in the source itself: the
+			 * source is then needed even if it has not changed.
+			 */
+			String key = request.getCacheKey();
+			RenderCache.Entry cached = cache.get(key);
+			if (cached != null && !request.useOWLAPI()) {
+				source = extractor.exec(ontologyURL, cached.getETag(), cached.getLastModified());
+			} else {
+				source = extractor.exec(ontologyURL);
+			}
 
-				if (useOWLAPI) {
-					content = parseWithOWLAPI(ontologyURL, useOWLAPI, considerImportedOntologies,
-							considerImportedClosure, useReasoner);
-				} else {
-					content = extractor.exec(ontologyURL);
+			ImportsCache.Closure imports = source == null ? null : renderer.prefetchImports(request, source);
+			String sourceHash = source == null ? cached.getSourceHash() : Renderer.hash(source, imports);
+			boolean hit = cached != null && cached.getSourceHash().equals(sourceHash);
+			if (cache.isEnabled()) {
+				metrics.cacheLookup("render", hit);
+			}
+			if (hit) {
+				cache.put(key, cached.revalidated(extractor.getETag(), extractor.getLastModified()));
+				page = cached.getHtml();
+				out.write(page);
+			} else {
+				String failureKey = request.getTreeKey(sourceHash);
+				String failure = failures.get(failureKey);
+				if (failures.isEnabled()) {
+					metrics.cacheLookup("negative", failure != null);
+				}
+				if (failure != null) {
+					throw new IOException(failure);
 				}
 
 				/*
-				 * As it was before the new OWLAPI content = extractor.exec(ontologyURL); if
-				 * (useOWLAPI) { content = parseWithOWLAPI(content, useOWLAPI,
-				 * considerImportedOntologies, considerImportedClosure, useReasoner); }
+				 * The page is written to the response while it is being
+				 * transformed; a copy is kept for the cache and for the
+				 * identical requests waiting on this render.
 				 */
+				CapturingOutputStream output = new CapturingOutputStream(out,
+						Math.max(cacheMaxBytes, this.conf.getSharedPageMaxBytes()));
+				List<String> notices = new ArrayList<String>();
+				try {
+					renderer.render(request, source, imports, notices, output);
+				} catch (InterruptedIOException e) {
+					throw e;
+				} catch (Exception e) {
+					// The same source would fail the same way
+					if (!response.isCommitted()) {
+						failures.put(failureKey, e.getMessage());
+					}
+					throw e;
+				}
 
-				content = applyXSLTTransformation(content, stringURL, lang);
-
-				out.println(content);
-				i = maxTentative;
-			} catch (Exception e) {
-				if (i + 1 == maxTentative) {
-					out.println(getErrorPage(e));
+				// A page that had to be degraded is not worth keeping
+				page = output.getCapture();
+				if (page != null && page.length <= cacheMaxBytes && !trace.isDegraded()) {
+					cache.put(key, new RenderCache.Entry(page, sourceHash, extractor.getETag(),
+							extractor.getLastModified()));
 				}
 			}
+		} catch (Exception e) {
+			/*
+			 * Once part of the page has reached the client there is no way
+			 * to replace it with the error page.
+			 */
+			if (response.isCommitted()) {
+				logger.warn("Could not complete the documentation of {}", request.getUrl(), e);
+				throw new IOException("The documentation could not be completed.", e);
+			}
+			response.reset();
+			trace.failed(e);
+			page = getErrorPage(e).getBytes(StandardCharsets.UTF_8);
+			out.write(page);
 		}
+		return page;
 	}
 
 	private void resolveConfiguration(HttpServletRequest request) {
@@ -230,45 +482,6 @@ public class LodeServlet extends HttpServlet {
 	 * return result; }
 	 */
 
-	private String parseWithOWLAPI(URL ontologyURL, boolean useOWLAPI, boolean considerImportedOntologies,
-			boolean considerImportedClosure, boolean useReasoner)
-			throws OWLOntologyCreationException, OWLOntologyStorageException, URISyntaxException {
-		String result = "";
-
-		if (useOWLAPI) {
-			OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
-
-			OWLOntology ontology = null;
-
-			if (considerImportedClosure || considerImportedOntologies) {
-				ontology = manager.loadOntology(IRI.create(ontologyURL.toString()));
-				Set<OWLOntology> setOfImportedOntologies = new HashSet<OWLOntology>();
-				if (considerImportedOntologies) {
-					setOfImportedOntologies.addAll(ontology.getDirectImports());
-				} else {
-					setOfImportedOntologies.addAll(ontology.getImportsClosure());
-				}
-				for (OWLOntology importedOntology : setOfImportedOntologies) {
-					manager.addAxioms(ontology, importedOntology.getAxioms());
-				}
-			} else {
-				// manager.setSilentMissingImportsHandling(true);
-				ontology = manager.loadOntology(IRI.create(ontologyURL.toString()));
-			}
-
-			if (useReasoner) {
-				ontology = parseWithReasoner(manager, ontology);
-			}
-
-			StringDocumentTarget parsedOntology = new StringDocumentTarget();
-
-			manager.saveOntology(ontology, new RDFXMLDocumentFormat(), parsedOntology);
-			result = parsedOntology.toString();
-		}
-
-		return result;
-	}
-
 	private String addImportedAxioms(String result, List<String> removed) {
 		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
 		factory.setNamespaceAware(true);
@@ -345,128 +558,8 @@ public class LodeServlet extends HttpServlet {
 	 * result; } catch (TransformerException e) { return result; } }
 	 */
 
-	private OWLOntology parseWithReasoner(OWLOntologyManager manager, OWLOntology ontology) {
-		try {
-			PelletOptions.load(new URL(this.conf.getPelletPropertiesUrl()));
-			PelletReasoner reasoner = PelletReasonerFactory.getInstance().createReasoner(ontology);
-			reasoner.getKB().prepare();
-			List<InferredAxiomGenerator<? extends OWLAxiom>> generators = new ArrayList<InferredAxiomGenerator<? extends OWLAxiom>>();
-			generators.add(new InferredSubClassAxiomGenerator());
-			generators.add(new InferredClassAssertionAxiomGenerator());
-			generators.add(new InferredDisjointClassesAxiomGenerator());
-			generators.add(new InferredEquivalentClassAxiomGenerator());
-			generators.add(new InferredEquivalentDataPropertiesAxiomGenerator());
-			generators.add(new InferredEquivalentObjectPropertyAxiomGenerator());
-			generators.add(new InferredInverseObjectPropertiesAxiomGenerator());
-			generators.add(new InferredPropertyAssertionGenerator());
-			generators.add(new InferredSubDataPropertyAxiomGenerator());
-			generators.add(new InferredSubObjectPropertyAxiomGenerator());
-
-			InferredOntologyGenerator iog = new InferredOntologyGenerator(reasoner, generators);
-
-			OWLOntologyID id = ontology.getOntologyID();
-			Set<OWLImportsDeclaration> declarations = ontology.getImportsDeclarations();
-			Set<OWLAnnotation> annotations = ontology.getAnnotations();
-
-			Map<OWLEntity, Collection<OWLAnnotationAssertionAxiom>> entityAnnotations = new HashMap<>();
-			for (OWLClass aEntity : ontology.getClassesInSignature()) {
-				entityAnnotations.put(aEntity, EntitySearcher.getAnnotationAssertionAxioms(aEntity, ontology));
-			}
-			for (OWLObjectProperty aEntity : ontology.getObjectPropertiesInSignature()) {
-				entityAnnotations.put(aEntity, EntitySearcher.getAnnotationAssertionAxioms(aEntity, ontology));
-			}
-			for (OWLDataProperty aEntity : ontology.getDataPropertiesInSignature()) {
-				entityAnnotations.put(aEntity, EntitySearcher.getAnnotationAssertionAxioms(aEntity, ontology));
-			}
-			for (OWLNamedIndividual aEntity : ontology.getIndividualsInSignature()) {
-				entityAnnotations.put(aEntity, EntitySearcher.getAnnotationAssertionAxioms(aEntity, ontology));
-			}
-			for (OWLAnnotationProperty aEntity : ontology.getAnnotationPropertiesInSignature()) {
-				entityAnnotations.put(aEntity, EntitySearcher.getAnnotationAssertionAxioms(aEntity, ontology));
-			}
-			for (OWLDatatype aEntity : ontology.getDatatypesInSignature()) {
-				entityAnnotations.put(aEntity, EntitySearcher.getAnnotationAssertionAxioms(aEntity, ontology));
-			}
-
-			manager.removeOntology(ontology);
-			OWLOntology inferred = manager.createOntology(id);
-			iog.fillOntology(manager.getOWLDataFactory(), inferred);
-
-			for (OWLImportsDeclaration decl : declarations) {
-				manager.applyChange(new AddImport(inferred, decl));
-			}
-			for (OWLAnnotation ann : annotations) {
-				manager.applyChange(new AddOntologyAnnotation(inferred, ann));
-			}
-			for (OWLClass aEntity : inferred.getClassesInSignature()) {
-				applyAnnotations(aEntity, entityAnnotations, manager, inferred);
-			}
-			for (OWLObjectProperty aEntity : inferred.getObjectPropertiesInSignature()) {
-				applyAnnotations(aEntity, entityAnnotations, manager, inferred);
-			}
-			for (OWLDataProperty aEntity : inferred.getDataPropertiesInSignature()) {
-				applyAnnotations(aEntity, entityAnnotations, manager, inferred);
-			}
-			for (OWLNamedIndividual aEntity : inferred.getIndividualsInSignature()) {
-				applyAnnotations(aEntity, entityAnnotations, manager, inferred);
-			}
-			for (OWLAnnotationProperty aEntity : inferred.getAnnotationPropertiesInSignature()) {
-				applyAnnotations(aEntity, entityAnnotations, manager, inferred);
-			}
-			for (OWLDatatype aEntity : inferred.getDatatypesInSignature()) {
-				applyAnnotations(aEntity, entityAnnotations, manager, inferred);
-			}
-
-			return inferred;
-		} catch (FileNotFoundException e1) {
-			return ontology;
-		} catch (MalformedURLException e1) {
-			return ontology;
-		} catch (IOException e1) {
-			return ontology;
-		} catch (OWLOntologyCreationException e) {
-			return ontology;
-		}
-	}
-
-	private void applyAnnotations(OWLEntity aEntity,
-			Map<OWLEntity, Collection<OWLAnnotationAssertionAxiom>> entityAnnotations, OWLOntologyManager manager,
-			OWLOntology ontology) {
-		Collection<OWLAnnotationAssertionAxiom> entityCollection = entityAnnotations.get(aEntity);
-		if (entityCollection != null) {
-			for (OWLAnnotationAssertionAxiom ann : entityCollection) {
-				manager.addAxiom(ontology, ann);
-			}
-		}
-	}
-
 	private String getErrorPage(Exception e) {
 		return "<html>" + "<head><title>LODE error</title></head>" + "<body>" + "<h2>" + "LODE error" + "</h2>"
 				+ "<p><strong>Reason: </strong>" + Encode.forHtml(e.getMessage()) + "</p>" + "</body>" + "</html>";
 	}
-
-	private String applyXSLTTransformation(String source, String ontologyUrl, String lang) throws TransformerException {
-		TransformerFactory tfactory = new net.sf.saxon.TransformerFactoryImpl();
-
-		ByteArrayOutputStream output = new ByteArrayOutputStream();
-
-		Transformer transformer = tfactory.newTransformer(new StreamSource(this.conf.getXsltPath()));
-
-		transformer.setParameter("css-location", this.conf.getCssLocation());
-		transformer.setParameter("lang", lang);
-		transformer.setParameter("ontology-url", ontologyUrl);
-		transformer.setParameter("lode-extract-url", this.conf.getExtractUrl());
-		transformer.setParameter("lode-home-url", this.conf.getHomeUrl());
-		transformer.setParameter("lode-source-url", this.conf.getSourceUrl());
-		transformer.setParameter("vendor-css", this.conf.getVendorCss());
-		transformer.setParameter("vendor-name", this.conf.getVendorName());
-		transformer.setParameter("vendor-url", this.conf.getVendorUrl());
-		transformer.setParameter("webvowl", this.conf.getWebvowl());
-
-		StreamSource inputSource = new StreamSource(new StringReader(source));
-
-		transformer.transform(inputSource, new StreamResult(output));
-
-		return new String(output.toByteArray(), StandardCharsets.UTF_8);
-	}
 }
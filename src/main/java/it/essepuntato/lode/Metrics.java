@@ -0,0 +1,302 @@
+package it.essepuntato.lode;
+
+import java.io.PrintWriter;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and latency histograms of the renders, written out
+ * in the Prometheus text format by the {@link MetricsServlet}.
+ */
+public class Metrics {
+
+	/**
+	 * The stages a render goes through, each with its own latency histogram.
+	 */
+	public enum Stage {
+		/** Trying the accepted mime types until the server answers one */
+		NEGOTIATION,
+		/** Downloading the body of the source */
+		FETCH,
+		/** Downloading the imports closure */
+		IMPORTS,
+		/** Loading the ontology with OWLAPI and merging the imported axioms */
+		PARSE,
+		/** Running Pellet */
+		REASONING,
+		/** Building the tree the stylesheet runs on, serializing the ontology if needed */
+		TREE,
+		/** Compiling the stylesheet, when it is first used or has changed */
+		XSLT_COMPILE,
+		/** Running the stylesheet */
+		XSLT_TRANSFORM;
+
+		public String label() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	/*
+	 * In seconds: renders range from a cached page to minutes of reasoning.
+	 */
+	private static final double[] BUCKETS = { 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60,
+			120, 300 };
+
+	private static final Metrics instance = new Metrics();
+
+	private final Map<Stage, Histogram> stages = new EnumMap<Stage, Histogram>(Stage.class);
+	private final Histogram renders = new Histogram();
+	private final ConcurrentMap<String, LongAdder> outcomes = new ConcurrentHashMap<String, LongAdder>();
+	private final ConcurrentMap<String, LongAdder[]> cacheLookups = new ConcurrentHashMap<String, LongAdder[]>();
+	private final LongAdder bytesFetched = new LongAdder();
+	private final LongAdder axiomsParsed = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder circuitsOpened = new LongAdder();
+	private final LongAdder circuitRejections = new LongAdder();
+	private final ConcurrentMap<String, LongAdder> limits = new ConcurrentHashMap<String, LongAdder>();
+	private final LongAdder estimatedHeap = new LongAdder();
+	private final LongAdder estimates = new LongAdder();
+	private final AtomicLong inFlight = new AtomicLong();
+	private final Histogram refreshes = new Histogram();
+	private final ConcurrentMap<String, LongAdder> refreshOutcomes = new ConcurrentHashMap<String, LongAdder>();
+	private final ConcurrentMap<String, Long> confirmed = new ConcurrentHashMap<String, Long>();
+
+	private Metrics() {
+		for (Stage stage : Stage.values()) {
+			this.stages.put(stage, new Histogram());
+		}
+	}
+
+	public static Metrics getInstance() {
+		return instance;
+	}
+
+	public void observe(Stage stage, long nanos) {
+		this.stages.get(stage).observe(nanos);
+	}
+
+	/**
+	 * Records a finished render, whatever its outcome (ok, error, timeout).
+	 */
+	public void rendered(String outcome, long nanos) {
+		this.renders.observe(nanos);
+		outcome(outcome);
+	}
+
+	/**
+	 * Counts a request by its outcome: the ones rendered, through
+	 * {@link #rendered}, and the ones that were not rendered at all (busy).
+	 */
+	public void outcome(String outcome) {
+		this.outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+	}
+
+	public void cacheLookup(String cache, boolean hit) {
+		LongAdder[] lookups = this.cacheLookups.computeIfAbsent(cache,
+				key -> new LongAdder[] { new LongAdder(), new LongAdder() });
+		lookups[hit ? 0 : 1].increment();
+	}
+
+	public void fetched(long bytes) {
+		this.bytesFetched.add(bytes);
+	}
+
+	public void parsed(long axioms) {
+		this.axiomsParsed.add(axioms);
+	}
+
+	/**
+	 * Records a download attempted again after a transient failure.
+	 */
+	public void retried() {
+		this.retries.increment();
+	}
+
+	public void circuitOpened() {
+		this.circuitsOpened.increment();
+	}
+
+	/**
+	 * Records a download refused because the circuit of its host is open.
+	 */
+	public void circuitRejected() {
+		this.circuitRejections.increment();
+	}
+
+	/**
+	 * Records the heap a source is estimated to take once loaded with OWLAPI
+	 * (and reasoned on, if requested).
+	 */
+	public void estimated(long bytes) {
+		this.estimatedHeap.add(bytes);
+		this.estimates.increment();
+	}
+
+	/**
+	 * Records a stage (owlapi, closure, reasoner) left out of a render because
+	 * the source is over its budget.
+	 */
+	public void limited(String stage) {
+		this.limits.computeIfAbsent(stage, key -> new LongAdder()).increment();
+	}
+
+	public void renderStarted() {
+		this.inFlight.incrementAndGet();
+	}
+
+	public void renderFinished() {
+		this.inFlight.decrementAndGet();
+	}
+
+	/**
+	 * Starts measuring the lag of a pre-rendered page, from now until it is
+	 * first refreshed.
+	 */
+	public void prerenderScheduled(String key) {
+		this.confirmed.putIfAbsent(key, System.nanoTime());
+	}
+
+	/**
+	 * Records a refresh of a pre-rendered page (unchanged, rendered, degraded,
+	 * failed); the first two confirm that the cached page is up to date.
+	 */
+	public void refreshed(String key, String outcome, long nanos) {
+		this.refreshes.observe(nanos);
+		this.refreshOutcomes.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+		if (outcome.equals("unchanged") || outcome.equals("rendered")) {
+			this.confirmed.put(key, System.nanoTime());
+		}
+	}
+
+	public void writeTo(PrintWriter out) {
+		out.println("# HELP lode_stage_duration_seconds Time spent in each stage of a render.");
+		out.println("# TYPE lode_stage_duration_seconds histogram");
+		for (Map.Entry<Stage, Histogram> stage : this.stages.entrySet()) {
+			stage.getValue().writeTo(out, "lode_stage_duration_seconds",
+					"stage=\"" + stage.getKey().label() + "\"");
+		}
+
+		out.println("# HELP lode_render_duration_seconds Time taken by a render, retries included.");
+		out.println("# TYPE lode_render_duration_seconds histogram");
+		this.renders.writeTo(out, "lode_render_duration_seconds", null);
+
+		out.println("# HELP lode_renders_total Renders by outcome.");
+		out.println("# TYPE lode_renders_total counter");
+		for (Map.Entry<String, LongAdder> outcome : this.outcomes.entrySet()) {
+			out.println("lode_renders_total{outcome=\"" + outcome.getKey() + "\"} " + outcome.getValue().sum());
+		}
+
+		out.println("# HELP lode_cache_lookups_total Lookups in the caches, by cache and result.");
+		out.println("# TYPE lode_cache_lookups_total counter");
+		for (Map.Entry<String, LongAdder[]> lookup : this.cacheLookups.entrySet()) {
+			out.println("lode_cache_lookups_total{cache=\"" + lookup.getKey() + "\",result=\"hit\"} "
+					+ lookup.getValue()[0].sum());
+			out.println("lode_cache_lookups_total{cache=\"" + lookup.getKey() + "\",result=\"miss\"} "
+					+ lookup.getValue()[1].sum());
+		}
+
+		out.println("# HELP lode_fetched_bytes_total Bytes of ontology sources downloaded.");
+		out.println("# TYPE lode_fetched_bytes_total counter");
+		out.println("lode_fetched_bytes_total " + this.bytesFetched.sum());
+
+		out.println("# HELP lode_parsed_axioms_total Axioms of the ontologies parsed with OWLAPI.");
+		out.println("# TYPE lode_parsed_axioms_total counter");
+		out.println("lode_parsed_axioms_total " + this.axiomsParsed.sum());
+
+		out.println("# HELP lode_fetch_retries_total Downloads attempted again after a transient failure.");
+		out.println("# TYPE lode_fetch_retries_total counter");
+		out.println("lode_fetch_retries_total " + this.retries.sum());
+
+		out.println("# HELP lode_circuit_breaker_opened_total Times the circuit of a host was opened.");
+		out.println("# TYPE lode_circuit_breaker_opened_total counter");
+		out.println("lode_circuit_breaker_opened_total " + this.circuitsOpened.sum());
+
+		out.println("# HELP lode_circuit_breaker_rejected_total Downloads refused because the circuit of their host was open.");
+		out.println("# TYPE lode_circuit_breaker_rejected_total counter");
+		out.println("lode_circuit_breaker_rejected_total " + this.circuitRejections.sum());
+
+		out.println("# HELP lode_render_heap_estimate_bytes Heap the sources loaded with OWLAPI were estimated to take.");
+		out.println("# TYPE lode_render_heap_estimate_bytes summary");
+		out.println("lode_render_heap_estimate_bytes_sum " + this.estimatedHeap.sum());
+		out.println("lode_render_heap_estimate_bytes_count " + this.estimates.sum());
+
+		out.println("# HELP lode_render_limited_total Stages left out of a render because the source was over budget.");
+		out.println("# TYPE lode_render_limited_total counter");
+		for (Map.Entry<String, LongAdder> limit : this.limits.entrySet()) {
+			out.println("lode_render_limited_total{stage=\"" + limit.getKey() + "\"} " + limit.getValue().sum());
+		}
+
+		Runtime runtime = Runtime.getRuntime();
+		out.println("# HELP lode_heap_used_bytes Heap in use.");
+		out.println("# TYPE lode_heap_used_bytes gauge");
+		out.println("lode_heap_used_bytes " + (runtime.totalMemory() - runtime.freeMemory()));
+
+		out.println("# HELP lode_heap_max_bytes Heap the JVM can grow to.");
+		out.println("# TYPE lode_heap_max_bytes gauge");
+		out.println("lode_heap_max_bytes " + runtime.maxMemory());
+
+		out.println("# HELP lode_renders_in_flight Renders currently running.");
+		out.println("# TYPE lode_renders_in_flight gauge");
+		out.println("lode_renders_in_flight " + this.inFlight.get());
+
+		out.println("# HELP lode_prerender_refresh_duration_seconds Time taken to revalidate or render a pre-rendered page.");
+		out.println("# TYPE lode_prerender_refresh_duration_seconds histogram");
+		this.refreshes.writeTo(out, "lode_prerender_refresh_duration_seconds", null);
+
+		out.println("# HELP lode_prerender_refreshes_total Refreshes of the pre-rendered pages by outcome.");
+		out.println("# TYPE lode_prerender_refreshes_total counter");
+		for (Map.Entry<String, LongAdder> outcome : this.refreshOutcomes.entrySet()) {
+			out.println("lode_prerender_refreshes_total{outcome=\"" + outcome.getKey() + "\"} "
+					+ outcome.getValue().sum());
+		}
+
+		long now = System.nanoTime();
+		long lag = 0;
+		for (long confirmed : this.confirmed.values()) {
+			lag = Math.max(lag, now - confirmed);
+		}
+		out.println("# HELP lode_prerender_lag_seconds Longest time since a pre-rendered page was last confirmed up to date.");
+		out.println("# TYPE lode_prerender_lag_seconds gauge");
+		out.println("lode_prerender_lag_seconds " + lag / 1e9);
+	}
+
+	private static class Histogram {
+		private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+		private final LongAdder sum = new LongAdder();
+
+		Histogram() {
+			for (int i = 0; i < this.counts.length; i++) {
+				this.counts[i] = new LongAdder();
+			}
+		}
+
+		void observe(long nanos) {
+			double seconds = nanos / 1e9;
+			int i = 0;
+			while (i < BUCKETS.length && seconds > BUCKETS[i]) {
+				i++;
+			}
+			this.counts[i].increment();
+			this.sum.add(nanos);
+		}
+
+		void writeTo(PrintWriter out, String name, String labels) {
+			String prefix = labels == null ? "" : labels + ",";
+			String suffix = labels == null ? "" : "{" + labels + "}";
+			long cumulative = 0;
+			for (int i = 0; i < BUCKETS.length; i++) {
+				cumulative += this.counts[i].sum();
+				out.println(name + "_bucket{" + prefix + "le=\"" + BUCKETS[i] + "\"} " + cumulative);
+			}
+			cumulative += this.counts[BUCKETS.length].sum();
+			out.println(name + "_bucket{" + prefix + "le=\"+Inf\"} " + cumulative);
+			out.println(name + "_sum" + suffix + " " + this.sum.sum() / 1e9);
+			out.println(name + "_count" + suffix + " " + cumulative);
+		}
+	}
+}
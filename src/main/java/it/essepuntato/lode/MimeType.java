@@ -20,6 +20,8 @@ public interface MimeType {
 		"application/rdf+xml" ,
 		"text/turtle" , 
 		"application/x-turtle",
+		"application/n-triples",
+		"application/ld+json",
 		"text/xml" ,
 		"text/plain", 
 		"*/*"};
@@ -0,0 +1,73 @@
+package it.essepuntato.lode;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the failures that would happen again if tried right away: a
+ * download the server refused (404, 410, a source too large) or a source that
+ * cannot be parsed or transformed. Requests for them are answered with the
+ * same error for negativeCacheTtl seconds without doing the work again.
+ *
+ * Failures of a render are remembered by the hash of the source (see
+ * {@link RenderRequest#getTreeKey(String)}), so a fixed ontology is rendered
+ * as soon as it is published again.
+ */
+public class NegativeCache {
+	private static final int MAX_ENTRIES = 10000;
+
+	private static NegativeCache instance = null;
+
+	private final long ttl;
+	private final LinkedHashMap<String, Failure> entries = new LinkedHashMap<String, Failure>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Failure> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	public NegativeCache(long ttl) {
+		this.ttl = ttl;
+	}
+
+	public static synchronized NegativeCache getInstance(LODEConfiguration conf) {
+		if (instance == null) {
+			instance = new NegativeCache(conf.getNegativeCacheTtl() * 1000L);
+		}
+		return instance;
+	}
+
+	public boolean isEnabled() {
+		return this.ttl > 0;
+	}
+
+	/**
+	 * @return the message of the failure remembered for the key, or null
+	 */
+	public synchronized String get(String key) {
+		Failure failure = this.entries.get(key);
+		if (failure != null && System.currentTimeMillis() >= failure.expires) {
+			this.entries.remove(key);
+			failure = null;
+		}
+		return failure == null ? null : failure.message;
+	}
+
+	public synchronized void put(String key, String message) {
+		if (isEnabled()) {
+			this.entries.put(key, new Failure(message, System.currentTimeMillis() + this.ttl));
+		}
+	}
+
+	private static class Failure {
+		private final String message;
+		private final long expires;
+
+		Failure(String message, long expires) {
+			this.message = message;
+			this.expires = expires;
+		}
+	}
+}
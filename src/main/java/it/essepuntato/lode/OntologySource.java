@@ -0,0 +1,190 @@
+package it.essepuntato.lode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * The raw bytes of a downloaded ontology, together with what the server said
+ * about them.
+ *
+ * The content is kept as bytes and decoded only by the consumer, using the
+ * charset of the response when one was declared; XML consumers otherwise rely
+ * on the encoding declared by the document itself.
+ */
+public class OntologySource {
+	private static final int SNIFF_BYTES = 1024;
+	// An element name, possibly prefixed, as opposed to an IRI between angle brackets
+	private static final Pattern XML_ELEMENT = Pattern.compile("<[A-Za-z_][\\w.-]*(?::[A-Za-z_][\\w.-]*)?[\\s/>]");
+	private static final Pattern TURTLE = Pattern.compile("(?i:@prefix|@base|prefix\\s|base\\s)|#|<[^\\s<>\"]*>|_:");
+
+	private final byte[] data;
+	private final int length;
+	private final String contentType;
+
+	public OntologySource(byte[] data, int length, String contentType) {
+		this.data = data;
+		this.length = length;
+		this.contentType = contentType;
+	}
+
+	/**
+	 * Reads the whole stream, failing as soon as more than maxBytes have been
+	 * read.
+	 */
+	public static OntologySource read(InputStream in, String contentType, long maxBytes) throws IOException {
+		Buffer buffer = new Buffer();
+		byte[] chunk = new byte[16384];
+		int read;
+		while ((read = in.read(chunk)) != -1) {
+			buffer.write(chunk, 0, read);
+			if (maxBytes > 0 && buffer.size() > maxBytes) {
+				throw new IOException("The source exceeds the maximum allowed size of " + maxBytes + " bytes.");
+			}
+		}
+		return new OntologySource(buffer.array(), buffer.size(), contentType);
+	}
+
+	public int length() {
+		return this.length;
+	}
+
+	public boolean isEmpty() {
+		return this.length == 0;
+	}
+
+	/**
+	 * @return the Content-Type header of the response, if any
+	 */
+	public String getContentType() {
+		return this.contentType;
+	}
+
+	/**
+	 * @return the media type of the response without its parameters, if any
+	 */
+	public String getMimeType() {
+		if (this.contentType == null) {
+			return null;
+		}
+		int separator = this.contentType.indexOf(';');
+		String mimeType = separator < 0 ? this.contentType : this.contentType.substring(0, separator);
+		return mimeType.trim().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * @return the charset declared in the Content-Type header, or null if none
+	 *         (or an unsupported one) was declared
+	 */
+	public Charset getCharset() {
+		if (this.contentType == null) {
+			return null;
+		}
+		for (String parameter : this.contentType.split(";")) {
+			String[] pair = parameter.trim().split("=", 2);
+			if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset")) {
+				try {
+					return Charset.forName(pair[1].trim().replace("\"", ""));
+				} catch (IllegalArgumentException e) {
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Guesses the syntax of the content from its first bytes.
+	 *
+	 * @return application/rdf+xml, text/turtle (which N-Triples is part of) or
+	 *         application/ld+json, or null if the content looks like none of
+	 *         them
+	 */
+	public String sniffMimeType() {
+		int start = 0;
+		if (this.length >= 3 && (this.data[0] & 0xFF) == 0xEF && (this.data[1] & 0xFF) == 0xBB
+				&& (this.data[2] & 0xFF) == 0xBF) {
+			start = 3;
+		}
+		while (start < this.length && Character.isWhitespace(this.data[start])) {
+			start++;
+		}
+		String head = new String(this.data, start, Math.min(this.length - start, SNIFF_BYTES),
+				StandardCharsets.ISO_8859_1);
+
+		if (head.startsWith("{") || head.startsWith("[")) {
+			return "application/ld+json";
+		} else if (head.startsWith("<?") || head.startsWith("<!") || XML_ELEMENT.matcher(head).lookingAt()) {
+			return "application/rdf+xml";
+		} else if (TURTLE.matcher(head).lookingAt()) {
+			return "text/turtle";
+		}
+		return null;
+	}
+
+	/**
+	 * @return the same content, labelled with another media type but the same
+	 *         parameters
+	 */
+	public OntologySource withMimeType(String mimeType) {
+		int separator = this.contentType == null ? -1 : this.contentType.indexOf(';');
+		String contentType = separator < 0 ? mimeType : mimeType + this.contentType.substring(separator);
+		return new OntologySource(this.data, this.length, contentType);
+	}
+
+	public InputStream openStream() {
+		return new ByteArrayInputStream(this.data, 0, this.length);
+	}
+
+	/**
+	 * Returns a source for an XML parser: decoded with the declared charset
+	 * when there is one, otherwise left to the parser's encoding detection.
+	 */
+	public StreamSource toStreamSource() {
+		Charset charset = getCharset();
+		if (charset != null) {
+			return new StreamSource(new InputStreamReader(openStream(), charset));
+		}
+		return new StreamSource(openStream());
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(this.data, 0, this.length);
+	}
+
+	public String hash() {
+		return RenderCache.hash(this.data, 0, this.length);
+	}
+
+	/**
+	 * Decodes the whole content, in UTF-8 unless another charset was declared.
+	 */
+	@Override
+	public String toString() {
+		Charset charset = getCharset();
+		return new String(this.data, 0, this.length, charset != null ? charset : StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Gives access to the internal array, so the content is not copied once
+	 * more when reading is over.
+	 */
+	private static class Buffer extends ByteArrayOutputStream {
+		Buffer() {
+			super(65536);
+		}
+
+		byte[] array() {
+			return this.buf;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package it.essepuntato.lode;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the pages of the configured ontologies (see
+ * {@link LODEConfiguration#getPrerender()}) warm in the {@link RenderCache}.
+ *
+ * The pages are rendered when the application starts and revalidated in the
+ * background every prerenderInterval seconds, give or take prerenderJitter,
+ * so that requests for them never wait for a fetch, a parse or the reasoner.
+ * A page whose source has changed upstream is rendered again off the request
+ * path; an unchanged one only has its cache entry renewed, so the interval
+ * should be shorter than the render cache TTL.
+ *
+ * At most prerenderThreads pages are refreshed at the same time. Unless
+ * externalURL is set, the pages link to the application by path, as no request
+ * tells the host it is served from.
+ */
+public class Prerenderer implements ServletContextListener {
+	private static final Logger logger = LoggerFactory.getLogger(Prerenderer.class);
+
+	private LODEConfiguration conf;
+	private ScheduledThreadPoolExecutor pool;
+
+	@Override
+	public void contextInitialized(ServletContextEvent event) {
+		this.conf = LODEConfiguration.load(event.getServletContext());
+		if (this.conf.getPrerender().isEmpty()) {
+			return;
+		}
+
+		List<RenderRequest> requests = new ArrayList<RenderRequest>();
+		for (String entry : this.conf.getPrerender()) {
+			try {
+				requests.addAll(RenderRequest.fromEntry(entry, this.conf.getDefaultLang()));
+			} catch (IllegalArgumentException e) {
+				logger.warn("Ignoring the pre-render entry {}: {}", entry, e.getMessage());
+			}
+		}
+		if (requests.isEmpty()) {
+			return;
+		}
+		if (!RenderCache.getInstance(this.conf).isEnabled()) {
+			logger.warn("The render cache is disabled, the {} pre-render entries are ignored", requests.size());
+			return;
+		}
+
+		AtomicInteger count = new AtomicInteger();
+		this.pool = new ScheduledThreadPoolExecutor(Math.max(1, this.conf.getPrerenderThreads()), runnable -> {
+			Thread thread = new Thread(runnable, "LODE prerender " + count.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		});
+
+		// The first renders are spread over the jitter too
+		long jitter = this.conf.getPrerenderJitter() * 1000L;
+		for (RenderRequest request : requests) {
+			Metrics.getInstance().prerenderScheduled(request.getCacheKey());
+			schedule(request, jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0);
+		}
+		logger.info("Pre-rendering {} pages every {} s", requests.size(), this.conf.getPrerenderInterval());
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent event) {
+		if (this.pool != null) {
+			this.pool.shutdownNow();
+		}
+	}
+
+	private void schedule(RenderRequest request, long delay) {
+		try {
+			this.pool.schedule(() -> {
+				refresh(request);
+				long jitter = this.conf.getPrerenderJitter() * 1000L;
+				long next = this.conf.getPrerenderInterval() * 1000L
+						+ (jitter > 0 ? ThreadLocalRandom.current().nextLong(-jitter, jitter + 1) : 0);
+				schedule(request, Math.max(0, next));
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// The application is shutting down
+		}
+	}
+
+	/**
+	 * Revalidates the cached page of the request, rendering it again if its
+	 * source has changed or it is not cached.
+	 *
+	 * @return the outcome: unchanged, rendered, degraded (not cached) or
+	 *         failed
+	 */
+	public String refresh(RenderRequest request) {
+		long started = System.nanoTime();
+		String key = request.getCacheKey();
+		String outcome = "failed";
+		RenderTrace trace = new RenderTrace(request.getUrl());
+		try {
+			SourceExtractor extractor = new SourceExtractor(FetchCache.getInstance(this.conf));
+			extractor.addMimeTypes(MimeType.mimeTypes);
+			extractor.setMaxBytes(this.conf.getMaxSourceBytes());
+			extractor.setTimeouts(this.conf.getConnectTimeout() * 1000, this.conf.getReadTimeout() * 1000);
+			extractor.setRetries(this.conf.getMaxTentative(), this.conf.getRetryBackoff());
+			extractor.setCircuitBreaker(HostCircuitBreaker.getInstance(this.conf));
+			extractor.setTrace(trace);
+			RenderCache cache = RenderCache.getInstance(this.conf);
+
+			URL url = new URL(request.getUrl());
+			RenderCache.Entry cached = cache.get(key);
+			// A page generated with OWLAPI depends on the imports found in the source, changed or not
+			OntologySource source = cached != null && !request.useOWLAPI()
+					? extractor.exec(url, cached.getETag(), cached.getLastModified())
+					: extractor.exec(url);
+
+			Renderer renderer = new Renderer(this.conf, trace);
+			ImportsCache.Closure imports = source == null ? null : renderer.prefetchImports(request, source);
+			String sourceHash = source == null ? cached.getSourceHash() : Renderer.hash(source, imports);
+			if (cached != null && cached.getSourceHash().equals(sourceHash)) {
+				cache.put(key, cached.revalidated(extractor.getETag(), extractor.getLastModified()));
+				outcome = "unchanged";
+			} else {
+				ByteArrayOutputStream page = new ByteArrayOutputStream();
+				List<String> notices = new ArrayList<String>();
+				renderer.render(request, source, imports, notices, page);
+				if (!trace.isDegraded()) {
+					cache.put(key, new RenderCache.Entry(page.toByteArray(), sourceHash, extractor.getETag(),
+							extractor.getLastModified()));
+					outcome = "rendered";
+				} else {
+					logger.warn("Pre-rendered a degraded page of {}, not cached: {}", request.getUrl(), notices);
+					outcome = "degraded";
+				}
+			}
+		} catch (Exception e) {
+			logger.warn("Could not pre-render {}", request.getUrl(), e);
+		} finally {
+			long elapsed = System.nanoTime() - started;
+			Metrics.getInstance().refreshed(key, outcome, elapsed);
+			logger.debug("Refreshed {} ({}) in {} ms: {}", request.getUrl(), outcome, elapsed / 1000000, trace);
+		}
+		return outcome;
+	}
+}
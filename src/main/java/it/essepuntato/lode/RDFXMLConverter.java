@@ -0,0 +1,445 @@
+package it.essepuntato.lode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.OWL;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFParser;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+
+/**
+ * Turns a Turtle, N-Triples or JSON-LD source into RDF/XML laid out the way
+ * OWLAPI writes it, which is what the extraction stylesheet expects, without
+ * building an OWLAPI ontology.
+ *
+ * The triples are parsed with Rio and grouped by subject; each resource is
+ * then written as a typed node when it has one of the OWL types OWLAPI
+ * abbreviates, with the blank nodes used once nested in place and well-formed
+ * lists written as collections. Like OWLAPI, a named resource with several of
+ * those types (a punned entity, say) is written once per type, so that the
+ * stylesheet finds it in every section it belongs to.
+ */
+public class RDFXMLConverter implements RDFXMLStream.Serializer {
+	private static final List<RDFFormat> FORMATS = Arrays.asList(RDFFormat.TURTLE, RDFFormat.NTRIPLES,
+			RDFFormat.JSONLD);
+
+	/*
+	 * The types written as the element name of a node rather than as an
+	 * rdf:type property, as OWLAPI does. owl:Thing is only used when the
+	 * resource has none of the others: an individual that is also declared a
+	 * Thing is still a NamedIndividual for the stylesheet.
+	 */
+	private static final Set<IRI> TYPED_NODES = new HashSet<IRI>(Arrays.asList(OWL.CLASS, OWL.OBJECTPROPERTY,
+			OWL.DATATYPEPROPERTY, OWL.ANNOTATIONPROPERTY, OWL.RESTRICTION, OWL.NOTHING, OWL.ONTOLOGY,
+			OWL.NAMEDINDIVIDUAL, RDFS.DATATYPE, OWL.AXIOM, OWL.ANNOTATION));
+
+	private final Map<Resource, List<Statement>> subjects = new LinkedHashMap<Resource, List<Statement>>();
+	private final Map<BNode, Integer> references = new HashMap<BNode, Integer>();
+	private final Map<String, String> prefixes = new LinkedHashMap<String, String>();
+	private int size = 0;
+
+	private final Map<BNode, String> nodeIds = new HashMap<BNode, String>();
+	private final Set<Resource> written = new HashSet<Resource>();
+	private final Set<BNode> open = new HashSet<BNode>();
+
+	private RDFXMLConverter() {
+		this.prefixes.put(RDF.NAMESPACE, "rdf");
+		this.prefixes.put(RDFS.NAMESPACE, "rdfs");
+		this.prefixes.put(OWL.NAMESPACE, "owl");
+		this.prefixes.put(XSD.NAMESPACE, "xsd");
+	}
+
+	/**
+	 * Picks the syntax of a source from its Content-Type or, when the server
+	 * sent a generic one, from the extension of its URL.
+	 *
+	 * @return the syntax, or null if the source is RDF/XML (or unknown) and
+	 *         can be handed to the stylesheet as it is
+	 */
+	public static RDFFormat getFormat(OntologySource source, URL url) {
+		String mimeType = source.getMimeType();
+		RDFFormat format = null;
+		if (mimeType != null && !mimeType.equals("text/plain") && !mimeType.equals("application/octet-stream")) {
+			format = Rio.getParserFormatForMIMEType(mimeType).orElse(null);
+		} else if (url != null) {
+			format = Rio.getParserFormatForFileName(url.getPath()).orElse(null);
+		}
+		return FORMATS.contains(format) ? format : null;
+	}
+
+	/**
+	 * Parses the whole source.
+	 *
+	 * @throws IOException
+	 *             if the source is not valid in the given syntax
+	 */
+	public static RDFXMLConverter parse(OntologySource source, RDFFormat format, String baseUri)
+			throws IOException {
+		RDFXMLConverter converter = new RDFXMLConverter();
+		RDFParser parser = Rio.createParser(format);
+		parser.setRDFHandler(converter.new Collector());
+		Charset charset = source.getCharset();
+		try (InputStream in = source.openStream()) {
+			if (charset != null) {
+				parser.parse(new InputStreamReader(in, charset), baseUri);
+			} else {
+				parser.parse(in, baseUri);
+			}
+		} catch (RuntimeException e) {
+			// Rio reports syntax errors as unchecked exceptions
+			throw new IOException("The source is not valid " + format.getName() + ": " + e.getMessage(), e);
+		}
+		return converter;
+	}
+
+	/**
+	 * @return the number of triples parsed
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Writes the RDF/XML; it can be called more than once, but not
+	 * concurrently.
+	 */
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		this.nodeIds.clear();
+		this.written.clear();
+		this.open.clear();
+		try {
+			XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+			collectNamespaces();
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement("rdf", "RDF", RDF.NAMESPACE);
+			for (Map.Entry<String, String> prefix : this.prefixes.entrySet()) {
+				writer.writeNamespace(prefix.getValue(), prefix.getKey());
+			}
+
+			for (Resource subject : this.subjects.keySet()) {
+				if (!isNested(subject)) {
+					writeNode(writer, subject);
+				}
+			}
+			// Cycles of blank nodes used once each cannot be nested anywhere
+			for (Resource subject : this.subjects.keySet()) {
+				if (!this.written.contains(subject)) {
+					nodeId((BNode) subject);
+					writeNode(writer, subject);
+				}
+			}
+
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.flush();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private boolean isNested(Value value) {
+		return value instanceof BNode && this.references.getOrDefault(value, 0) == 1;
+	}
+
+	/*
+	 * Every namespace used by a property or a typed node is declared on the
+	 * root element, with the prefix of the source when it has one.
+	 */
+	private void collectNamespaces() throws IOException {
+		Set<String> used = new HashSet<String>(Arrays.asList(RDF.NAMESPACE, RDFS.NAMESPACE, OWL.NAMESPACE,
+				XSD.NAMESPACE));
+		for (List<Statement> statements : this.subjects.values()) {
+			for (Statement statement : statements) {
+				used.add(split(statement.getPredicate())[0]);
+				if (statement.getPredicate().equals(RDF.TYPE)
+						&& (TYPED_NODES.contains(statement.getObject()) || statement.getObject().equals(OWL.THING))) {
+					used.add(split((IRI) statement.getObject())[0]);
+				}
+			}
+		}
+
+		Set<String> taken = new HashSet<String>(this.prefixes.values());
+		taken.add("xml");
+		this.prefixes.keySet().retainAll(used);
+		int count = 0;
+		for (String namespace : used) {
+			if (!this.prefixes.containsKey(namespace)) {
+				String prefix;
+				do {
+					prefix = "ns" + ++count;
+				} while (taken.contains(prefix));
+				this.prefixes.put(namespace, prefix);
+			}
+		}
+	}
+
+	private void writeNode(XMLStreamWriter writer, Resource subject) throws XMLStreamException, IOException {
+		this.written.add(subject);
+		List<Statement> statements = this.subjects.getOrDefault(subject, new ArrayList<Statement>());
+		List<Statement> types = getNodeTypes(statements);
+		if (subject instanceof IRI && types.size() > 1) {
+			for (Statement type : types) {
+				writeNode(writer, subject, statements, type, types, getHome(types));
+			}
+		} else {
+			// A single node, with the other types of a blank node as properties
+			Statement type = types.isEmpty() ? null : types.get(types.size() - 1);
+			writeNode(writer, subject, statements, type,
+					type == null ? Collections.<Statement>emptyList() : Collections.singletonList(type), type);
+		}
+	}
+
+	/*
+	 * Writes one node of the resource, named after the given type. The types
+	 * written as nodes of their own are left out of its properties, and so are
+	 * the properties with a blank node as object unless this is their home
+	 * node: a blank node is written once.
+	 */
+	private void writeNode(XMLStreamWriter writer, Resource subject, List<Statement> statements, Statement type,
+			List<Statement> types, Statement home) throws XMLStreamException, IOException {
+		if (subject instanceof BNode) {
+			this.open.add((BNode) subject);
+		}
+
+		if (type == null) {
+			writer.writeStartElement("rdf", "Description", RDF.NAMESPACE);
+		} else {
+			writeStartElement(writer, (IRI) type.getObject());
+		}
+
+		if (subject instanceof IRI) {
+			writer.writeAttribute("rdf", RDF.NAMESPACE, "about", subject.stringValue());
+		} else if (this.references.getOrDefault(subject, 0) > 1 || this.nodeIds.containsKey(subject)) {
+			writer.writeAttribute("rdf", RDF.NAMESPACE, "nodeID", nodeId((BNode) subject));
+		}
+
+		for (Statement statement : statements) {
+			if (types.contains(statement)) {
+				continue;
+			}
+			if (statement.getObject() instanceof BNode && type != getHome(statement, types, home)) {
+				continue;
+			}
+			writeProperty(writer, statement.getPredicate(), statement.getObject());
+		}
+
+		writer.writeEndElement();
+		if (subject instanceof BNode) {
+			this.open.remove(subject);
+		}
+	}
+
+	/*
+	 * The rdf:type statements whose objects are written as element names, in
+	 * the order of the source, with owl:Thing only if there is nothing else.
+	 */
+	private static List<Statement> getNodeTypes(List<Statement> statements) {
+		List<Statement> types = new ArrayList<Statement>();
+		Statement thing = null;
+		for (Statement statement : statements) {
+			if (statement.getPredicate().equals(RDF.TYPE)) {
+				if (TYPED_NODES.contains(statement.getObject())) {
+					types.add(statement);
+				} else if (statement.getObject().equals(OWL.THING)) {
+					thing = statement;
+				}
+			}
+		}
+		if (types.isEmpty() && thing != null) {
+			types.add(thing);
+		}
+		return types;
+	}
+
+	/*
+	 * The node of a multi-typed resource that gets the properties with a blank
+	 * node as object: the first one that is not a NamedIndividual.
+	 */
+	private static Statement getHome(List<Statement> types) {
+		for (Statement type : types) {
+			if (!type.getObject().equals(OWL.NAMEDINDIVIDUAL)) {
+				return type;
+			}
+		}
+		return types.get(0);
+	}
+
+	/*
+	 * Class assertions of anonymous classes belong to the NamedIndividual
+	 * node, if there is one; everything else to the home node.
+	 */
+	private static Statement getHome(Statement statement, List<Statement> types, Statement home) {
+		if (statement.getPredicate().equals(RDF.TYPE)) {
+			for (Statement type : types) {
+				if (type.getObject().equals(OWL.NAMEDINDIVIDUAL)) {
+					return type;
+				}
+			}
+		}
+		return home;
+	}
+
+	private void writeProperty(XMLStreamWriter writer, IRI predicate, Value object)
+			throws XMLStreamException, IOException {
+		writeStartElement(writer, predicate);
+		if (object instanceof IRI) {
+			writer.writeAttribute("rdf", RDF.NAMESPACE, "resource", object.stringValue());
+		} else if (object instanceof Literal) {
+			Literal literal = (Literal) object;
+			if (literal.getLanguage().isPresent()) {
+				writer.writeAttribute("xml", "http://www.w3.org/XML/1998/namespace", "lang",
+						literal.getLanguage().get());
+			} else if (!literal.getDatatype().equals(XSD.STRING)) {
+				writer.writeAttribute("rdf", RDF.NAMESPACE, "datatype", literal.getDatatype().stringValue());
+			}
+			writer.writeCharacters(literal.getLabel());
+		} else {
+			BNode node = (BNode) object;
+			List<Value> items = getCollection(node);
+			if (items != null) {
+				writer.writeAttribute("rdf", RDF.NAMESPACE, "parseType", "Collection");
+				for (Value item : items) {
+					if (isNested(item) && !this.open.contains(item)) {
+						writeNode(writer, (Resource) item);
+					} else {
+						writer.writeStartElement("rdf", "Description", RDF.NAMESPACE);
+						writer.writeAttribute("rdf", RDF.NAMESPACE, item instanceof IRI ? "about" : "nodeID",
+								item instanceof IRI ? item.stringValue() : nodeId((BNode) item));
+						writer.writeEndElement();
+					}
+				}
+			} else if (isNested(node) && !this.open.contains(node)) {
+				writeNode(writer, node);
+			} else {
+				writer.writeAttribute("rdf", RDF.NAMESPACE, "nodeID", nodeId(node));
+			}
+		}
+		writer.writeEndElement();
+	}
+
+	/*
+	 * Returns the members of the list starting at the node if it can be
+	 * written as a collection: every cell is used once and has nothing but
+	 * rdf:first, rdf:rest and possibly rdf:type rdf:List, and no member is a
+	 * literal. The cells are marked as written.
+	 */
+	private List<Value> getCollection(BNode node) {
+		List<Value> items = new ArrayList<Value>();
+		List<Resource> cells = new ArrayList<Resource>();
+		Value cell = node;
+		while (!RDF.NIL.equals(cell)) {
+			if (!isNested(cell) || this.written.contains(cell) || cells.contains(cell)) {
+				return null;
+			}
+			Value first = null;
+			Value rest = null;
+			for (Statement statement : this.subjects.getOrDefault(cell, new ArrayList<Statement>())) {
+				IRI predicate = statement.getPredicate();
+				if (predicate.equals(RDF.FIRST) && first == null) {
+					first = statement.getObject();
+				} else if (predicate.equals(RDF.REST) && rest == null) {
+					rest = statement.getObject();
+				} else if (!predicate.equals(RDF.TYPE) || !statement.getObject().equals(RDF.LIST)) {
+					return null;
+				}
+			}
+			if (first == null || rest == null || first instanceof Literal) {
+				return null;
+			}
+			items.add(first);
+			cells.add((Resource) cell);
+			cell = rest;
+		}
+		this.written.addAll(cells);
+		return items;
+	}
+
+	private String nodeId(BNode node) {
+		return this.nodeIds.computeIfAbsent(node, key -> "genid" + (this.nodeIds.size() + 1));
+	}
+
+	private void writeStartElement(XMLStreamWriter writer, IRI name) throws XMLStreamException, IOException {
+		String[] qname = split(name);
+		writer.writeStartElement(this.prefixes.get(qname[0]), qname[1], qname[0]);
+	}
+
+	/*
+	 * Splits an IRI into a namespace and the longest local name that is valid
+	 * in XML.
+	 */
+	private static String[] split(IRI iri) throws IOException {
+		String value = iri.stringValue();
+		int start = value.length();
+		while (start > 0 && isNameChar(value.charAt(start - 1))) {
+			start--;
+		}
+		while (start < value.length() && !isNameStartChar(value.charAt(start))) {
+			start++;
+		}
+		if (start == value.length()) {
+			throw new IOException("The property " + value + " cannot be written in RDF/XML");
+		}
+		return new String[] { value.substring(0, start), value.substring(start) };
+	}
+
+	private static boolean isNameStartChar(char c) {
+		return Character.isLetter(c) || c == '_';
+	}
+
+	private static boolean isNameChar(char c) {
+		return isNameStartChar(c) || Character.isDigit(c) || c == '-' || c == '.';
+	}
+
+	/**
+	 * Groups the parsed triples by subject and counts how many times each
+	 * blank node is used as an object.
+	 */
+	private class Collector extends AbstractRDFHandler {
+		@Override
+		public void handleNamespace(String prefix, String uri) {
+			if (!prefix.isEmpty() && !prefix.startsWith("xml") && !prefixes.containsKey(uri)
+					&& !prefixes.containsValue(prefix) && prefix.chars().allMatch(c -> isNameChar((char) c))
+					&& isNameStartChar(prefix.charAt(0))) {
+				prefixes.put(uri, prefix);
+			}
+		}
+
+		@Override
+		public void handleStatement(Statement statement) {
+			subjects.computeIfAbsent(statement.getSubject(), subject -> new ArrayList<Statement>()).add(statement);
+			if (statement.getObject() instanceof BNode) {
+				references.merge((BNode) statement.getObject(), 1, Integer::sum);
+			}
+			size++;
+		}
+	}
+}
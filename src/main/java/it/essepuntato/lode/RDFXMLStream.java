@@ -0,0 +1,115 @@
+package it.essepuntato.lode;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.semanticweb.owlapi.formats.RDFXMLDocumentFormat;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+/**
+ * Hands the RDF/XML serialization of an ontology to its consumer while it is
+ * being written.
+ *
+ * OWLAPI renders the ontology on a background thread into a bounded pipe and
+ * the XSLT parser reads from the other end, so the document never exists as a
+ * whole in memory. A failure of the renderer is reported to the reader as an
+ * {@link IOException} once the data it managed to write has been consumed.
+ */
+public class RDFXMLStream extends FilterInputStream {
+	private static final int PIPE_SIZE = 64 * 1024;
+
+	private static final ExecutorService renderers = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "LODE RDF/XML renderer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Future<?> renderer;
+	private long count = 0;
+
+	private RDFXMLStream(PipedInputStream in, Future<?> renderer) {
+		super(in);
+		this.renderer = renderer;
+	}
+
+	/**
+	 * Writes a document, as OWLAPI does for an ontology.
+	 */
+	public interface Serializer {
+		void writeTo(OutputStream out) throws Exception;
+	}
+
+	/**
+	 * Starts rendering the ontology and returns the stream it is rendered to.
+	 * The stream must be closed by the caller, also when it is not read until
+	 * the end: closing it makes a renderer that is still running fail instead
+	 * of waiting forever for room in the pipe.
+	 */
+	public static RDFXMLStream open(OWLOntology ontology) throws IOException {
+		return open(out -> ontology.getOWLOntologyManager().saveOntology(ontology, new RDFXMLDocumentFormat(), out));
+	}
+
+	/**
+	 * Starts writing the document, as {@link #open(OWLOntology)} does.
+	 */
+	public static RDFXMLStream open(Serializer serializer) throws IOException {
+		PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+		OutputStream out = new PipedOutputStream(in);
+		Future<?> renderer = renderers.submit(() -> {
+			try (OutputStream target = out) {
+				serializer.writeTo(target);
+			}
+			return null;
+		});
+		return new RDFXMLStream(in, renderer);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int result = super.read();
+		if (result == -1) {
+			checkRenderer();
+		} else {
+			this.count++;
+		}
+		return result;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int result = super.read(b, off, len);
+		if (result == -1) {
+			checkRenderer();
+		} else {
+			this.count += result;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of bytes read so far
+	 */
+	public long getCount() {
+		return this.count;
+	}
+
+	private void checkRenderer() throws IOException {
+		try {
+			this.renderer.get();
+		} catch (ExecutionException e) {
+			throw new IOException("The ontology could not be serialized: " + e.getCause().getMessage(),
+					e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+	}
+}
@@ -0,0 +1,354 @@
+package it.essepuntato.lode;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Cache of the HTML documentation produced by the extract servlet.
+ *
+ * Entries are looked up by the request (ontology URL, flags and language) and
+ * remember the hash of the source they were rendered from, together with the
+ * ETag and Last-Modified validators sent by the origin server. A cached page is
+ * served only when the origin confirms the source is unchanged, either with a
+ * 304 answer or by returning a body with the same hash.
+ *
+ * The cache has a bounded in-memory tier and an optional on-disk tier, both
+ * evicted by size and by age.
+ */
+public class RenderCache {
+
+	private static RenderCache instance = null;
+
+	private final long maxBytes;
+	private final long maxDiskBytes;
+	private final long ttl;
+	private final File directory;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long bytes = 0;
+
+	private RenderCache(LODEConfiguration conf) {
+		this.maxBytes = conf.getRenderCacheMaxBytes();
+		this.maxDiskBytes = conf.getRenderCacheMaxDiskBytes();
+		this.ttl = conf.getRenderCacheTtl() * 1000L;
+
+		String path = conf.getRenderCacheDirectory();
+		File dir = null;
+		if (path != null && !path.isEmpty()) {
+			dir = new File(path);
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				dir = null;
+			}
+		}
+		this.directory = dir;
+	}
+
+	public static synchronized RenderCache getInstance(LODEConfiguration conf) {
+		if (instance == null) {
+			instance = new RenderCache(conf);
+		}
+		return instance;
+	}
+
+	public boolean isEnabled() {
+		return this.maxBytes > 0 || this.directory != null;
+	}
+
+	/**
+	 * Builds the lookup key of a request.
+	 */
+	public static String key(String url, boolean owlapi, boolean imported, boolean closure, boolean reasoner,
+			String inferences, String lang) {
+		return hash(url + "\n" + owlapi + imported + closure + reasoner + "\n" + inferences + "\n" + lang);
+	}
+
+	/**
+	 * Returns the hex-encoded SHA-256 digest of the given text.
+	 */
+	public static String hash(String text) {
+		return hash(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Returns the hex-encoded SHA-256 digest of the given bytes.
+	 */
+	public static String hash(byte[] data) {
+		return hash(data, 0, data.length);
+	}
+
+	/**
+	 * Returns the hex-encoded SHA-256 digest of a range of the given bytes.
+	 */
+	public static String hash(byte[] data, int offset, int length) {
+		MessageDigest md = newDigest();
+		md.update(data, offset, length);
+		return toHex(md);
+	}
+
+	/**
+	 * Returns a SHA-256 digest, for the data read as a stream.
+	 */
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the hex-encoded result of a digest, as {@link #hash} does.
+	 */
+	public static String toHex(MessageDigest md) {
+		byte[] digest = md.digest();
+		StringBuilder result = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			result.append(Character.forDigit((b >> 4) & 0xF, 16));
+			result.append(Character.forDigit(b & 0xF, 16));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Returns the entry cached for the key, or null if there is none or it has
+	 * expired.
+	 */
+	public Entry get(String key) {
+		if (!isEnabled()) {
+			return null;
+		}
+
+		Entry entry;
+		synchronized (this) {
+			entry = this.entries.get(key);
+			if (entry != null && isExpired(entry)) {
+				remove(key);
+				entry = null;
+			}
+		}
+
+		if (entry == null && this.directory != null) {
+			entry = readFromDisk(key);
+			if (entry != null) {
+				if (isExpired(entry)) {
+					deleteFromDisk(key);
+					entry = null;
+				} else {
+					putInMemory(key, entry);
+				}
+			}
+		}
+
+		return entry;
+	}
+
+	public void put(String key, Entry entry) {
+		if (!isEnabled()) {
+			return;
+		}
+		putInMemory(key, entry);
+		if (this.directory != null) {
+			writeToDisk(key, entry);
+		}
+	}
+
+	private boolean isExpired(Entry entry) {
+		return this.ttl > 0 && System.currentTimeMillis() - entry.created > this.ttl;
+	}
+
+	private synchronized void putInMemory(String key, Entry entry) {
+		if (entry.size() > this.maxBytes) {
+			remove(key);
+			return;
+		}
+
+		remove(key);
+		this.entries.put(key, entry);
+		this.bytes += entry.size();
+
+		Iterator<Map.Entry<String, Entry>> eldest = this.entries.entrySet().iterator();
+		while (this.bytes > this.maxBytes && eldest.hasNext()) {
+			this.bytes -= eldest.next().getValue().size();
+			eldest.remove();
+		}
+	}
+
+	private void remove(String key) {
+		Entry removed = this.entries.remove(key);
+		if (removed != null) {
+			this.bytes -= removed.size();
+		}
+	}
+
+	private Entry readFromDisk(String key) {
+		File html = new File(this.directory, key + ".html");
+		File meta = new File(this.directory, key + ".properties");
+		if (!html.isFile() || !meta.isFile()) {
+			return null;
+		}
+
+		Properties properties = new Properties();
+		byte[] page;
+		try (InputStream in = new FileInputStream(meta)) {
+			properties.load(in);
+			page = Files.readAllBytes(html.toPath());
+		} catch (IOException e) {
+			// Being replaced, or removed by trimDisk
+			return null;
+		}
+
+		// A page that does not match its properties is being replaced
+		if (!hash(page).equals(properties.getProperty("htmlHash"))) {
+			return null;
+		}
+		try {
+			return new Entry(page, properties.getProperty("sourceHash"), properties.getProperty("etag"),
+					properties.getProperty("lastModified"), Long.parseLong(properties.getProperty("created", "0")));
+		} catch (NumberFormatException e) {
+			deleteFromDisk(key);
+			return null;
+		}
+	}
+
+	private void writeToDisk(String key, Entry entry) {
+		Properties properties = new Properties();
+		properties.setProperty("sourceHash", entry.sourceHash);
+		properties.setProperty("created", Long.toString(entry.created));
+		if (entry.etag != null) {
+			properties.setProperty("etag", entry.etag);
+		}
+		if (entry.lastModified != null) {
+			properties.setProperty("lastModified", entry.lastModified);
+		}
+
+		properties.setProperty("htmlHash", hash(entry.html));
+
+		/*
+		 * As in the FetchCache, both files are moved into place, the
+		 * properties (which mark the page complete and carry its hash) being
+		 * removed first and published last.
+		 */
+		File meta = new File(this.directory, key + ".properties");
+		try {
+			meta.delete();
+			File temporary = File.createTempFile("page", ".tmp", this.directory);
+			try {
+				Files.write(temporary.toPath(), entry.html);
+				Files.move(temporary.toPath(), new File(this.directory, key + ".html").toPath(),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				try (OutputStream out = new FileOutputStream(temporary)) {
+					properties.store(out, null);
+				}
+				Files.move(temporary.toPath(), meta.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				temporary.delete();
+			}
+		} catch (IOException e) {
+			deleteFromDisk(key);
+			return;
+		}
+
+		trimDisk();
+	}
+
+	private void deleteFromDisk(String key) {
+		new File(this.directory, key + ".html").delete();
+		new File(this.directory, key + ".properties").delete();
+	}
+
+	/*
+	 * Removes the oldest pages until the on-disk tier fits its budget again.
+	 */
+	private synchronized void trimDisk() {
+		File[] pages = this.directory.listFiles((dir, name) -> name.endsWith(".html"));
+		if (pages == null) {
+			return;
+		}
+
+		long total = 0;
+		for (File page : pages) {
+			total += page.length();
+		}
+		if (total <= this.maxDiskBytes) {
+			return;
+		}
+
+		Arrays.sort(pages, Comparator.comparingLong(File::lastModified));
+		for (File page : pages) {
+			if (total <= this.maxDiskBytes) {
+				break;
+			}
+			total -= page.length();
+			String name = page.getName();
+			deleteFromDisk(name.substring(0, name.length() - ".html".length()));
+		}
+	}
+
+	/**
+	 * A rendered page and the information needed to revalidate it.
+	 */
+	public static class Entry {
+		private final byte[] html;
+		private final String sourceHash;
+		private final String etag;
+		private final String lastModified;
+		private final long created;
+
+		public Entry(byte[] html, String sourceHash, String etag, String lastModified) {
+			this(html, sourceHash, etag, lastModified, System.currentTimeMillis());
+		}
+
+		private Entry(byte[] html, String sourceHash, String etag, String lastModified, long created) {
+			this.html = html;
+			this.sourceHash = sourceHash;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.created = created;
+		}
+
+		public byte[] getHtml() {
+			return this.html;
+		}
+
+		public String getSourceHash() {
+			return this.sourceHash;
+		}
+
+		public String getETag() {
+			return this.etag;
+		}
+
+		public String getLastModified() {
+			return this.lastModified;
+		}
+
+		/**
+		 * Returns a copy of this entry updated with the validators of a
+		 * successful revalidation; missing validators are kept from this entry.
+		 */
+		public Entry revalidated(String etag, String lastModified) {
+			return new Entry(this.html, this.sourceHash, etag != null ? etag : this.etag,
+					lastModified != null ? lastModified : this.lastModified);
+		}
+
+		private long size() {
+			return this.html.length;
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package it.essepuntato.lode;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The bounded thread pools renders run on.
+ *
+ * Renders that only need the XSLT transformation and renders that need OWLAPI
+ * (and possibly Pellet) run on separate pools, so that a few expensive
+ * reasoner requests cannot hold up the cheap ones. Each pool has a bounded
+ * queue; when it is full new renders are rejected straight away instead of
+ * piling up in memory.
+ *
+ * The reasoner tasks of a render (see {@link Inference.Family} and
+ * {@link LODEConfiguration#isParallelReasoning()}) run on a pool of their own,
+ * which needs no bound on its queue since the renders submitting them are
+ * already bounded.
+ *
+ * Work that mostly waits on the network (downloading a source, writing a
+ * finished page to a slow client) runs on an unbounded executor instead, on
+ * virtual threads when the JDK provides them.
+ */
+public class RenderExecutor {
+
+	private static RenderExecutor instance = null;
+
+	private final ThreadPoolExecutor light;
+	private final ThreadPoolExecutor heavy;
+	private final ThreadPoolExecutor reasoner;
+	private final ExecutorService tasks;
+	private final ScheduledThreadPoolExecutor timer;
+
+	private RenderExecutor(LODEConfiguration conf) {
+		this.light = newPool("LODE render", conf.getRenderThreads(), conf.getRenderQueueLength());
+		this.heavy = newPool("LODE OWLAPI render", conf.getOwlapiRenderThreads(), conf.getRenderQueueLength());
+		this.reasoner = new ThreadPoolExecutor(conf.getReasonerThreads(), conf.getReasonerThreads(), 60,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), newThreadFactory("LODE reasoner"));
+		this.reasoner.allowCoreThreadTimeOut(true);
+		this.tasks = newTaskExecutor();
+		this.timer = new ScheduledThreadPoolExecutor(1, newThreadFactory("LODE deadline"));
+		this.timer.setRemoveOnCancelPolicy(true);
+	}
+
+	public static synchronized RenderExecutor getInstance(LODEConfiguration conf) {
+		if (instance == null) {
+			instance = new RenderExecutor(conf);
+		}
+		return instance;
+	}
+
+	/**
+	 * Stops the pools, interrupting the renders that are still running.
+	 */
+	public static synchronized void shutdown() {
+		if (instance != null) {
+			instance.light.shutdownNow();
+			instance.heavy.shutdownNow();
+			instance.reasoner.shutdownNow();
+			instance.tasks.shutdownNow();
+			instance.timer.shutdownNow();
+			instance = null;
+		}
+	}
+
+	private static ThreadFactory newThreadFactory(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + " " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	private static ThreadPoolExecutor newPool(String name, int threads, int queueLength) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, queueLength)), newThreadFactory(name));
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/*
+	 * The build targets Java 11, so virtual threads (Java 21) are looked up
+	 * reflectively.
+	 */
+	private static ExecutorService newTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(newThreadFactory("LODE task"));
+		}
+	}
+
+	/**
+	 * Queues a render on the pool matching its cost.
+	 *
+	 * @throws RejectedExecutionException if that pool's queue is full
+	 */
+	public <T> Future<T> submit(RenderRequest request, Callable<T> render) {
+		return (request.useOWLAPI() ? this.heavy : this.light).submit(render);
+	}
+
+	/**
+	 * Runs a reasoner task of a render that is already running.
+	 */
+	public <T> Future<T> reason(Callable<T> task) {
+		return this.reasoner.submit(task);
+	}
+
+	/**
+	 * Runs a task that mostly waits on I/O.
+	 */
+	public Future<?> execute(Runnable task) {
+		return this.tasks.submit(task);
+	}
+
+	/**
+	 * Runs a task, as {@link #execute(Runnable)} does, once the delay has
+	 * elapsed, unless the returned future is cancelled first.
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		return this.timer.schedule(() -> {
+			this.tasks.execute(task);
+		}, delay, unit);
+	}
+}
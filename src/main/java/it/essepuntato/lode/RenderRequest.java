@@ -0,0 +1,190 @@
+package it.essepuntato.lode;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * The options of an extract request, detached from the servlet request so
+ * that the rendering can happen on another thread.
+ */
+public class RenderRequest {
+	private final String url;
+	private final boolean useOWLAPI;
+	private final boolean considerImportedOntologies;
+	private final boolean considerImportedClosure;
+	private final boolean useReasoner;
+	private final Set<Inference> inferences;
+	private final String lang;
+
+	public RenderRequest(String url, boolean useOWLAPI, boolean considerImportedOntologies,
+			boolean considerImportedClosure, boolean useReasoner, Set<Inference> inferences, String lang) {
+		this.url = url;
+		this.considerImportedOntologies = considerImportedOntologies;
+		this.considerImportedClosure = considerImportedClosure;
+		this.useReasoner = useReasoner;
+		this.inferences = inferences;
+		this.useOWLAPI = useOWLAPI || considerImportedOntologies || considerImportedClosure || useReasoner;
+		this.lang = lang;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the inferences are not known
+	 */
+	public static RenderRequest fromParameters(HttpServletRequest request, String defaultLang) {
+		String lang = request.getParameter("lang");
+		if (lang == null || lang.isEmpty()) {
+			lang = defaultLang;
+		}
+
+		return new RenderRequest(request.getParameter("url"), Boolean.parseBoolean(request.getParameter("owlapi")),
+				Boolean.parseBoolean(request.getParameter("imported")),
+				Boolean.parseBoolean(request.getParameter("closure")),
+				Boolean.parseBoolean(request.getParameter("reasoner")),
+				Inference.parse(request.getParameter("inferences")), lang);
+	}
+
+	/**
+	 * Reads the requests of an entry such as
+	 * "http://purl.org/spar/fabio reasoner=true lang=en,it": a URL followed by
+	 * the options of the extract service, one request per language.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if an option is not known
+	 */
+	public static List<RenderRequest> fromEntry(String entry, String defaultLang) {
+		String[] fields = entry.trim().split("\\s+");
+		boolean owlapi = false, imported = false, closure = false, reasoner = false;
+		String inferences = null;
+		String[] langs = { defaultLang };
+		for (int i = 1; i < fields.length; i++) {
+			String[] option = fields[i].split("=", 2);
+			String value = option.length == 2 ? option[1] : "true";
+			switch (option[0]) {
+			case "owlapi":
+				owlapi = Boolean.parseBoolean(value);
+				break;
+			case "imported":
+				imported = Boolean.parseBoolean(value);
+				break;
+			case "closure":
+				closure = Boolean.parseBoolean(value);
+				break;
+			case "reasoner":
+				reasoner = Boolean.parseBoolean(value);
+				break;
+			case "inferences":
+				inferences = value;
+				break;
+			case "lang":
+				langs = value.split(",");
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + fields[i] + " in " + entry);
+			}
+		}
+
+		List<RenderRequest> requests = new ArrayList<RenderRequest>();
+		for (String lang : langs) {
+			requests.add(new RenderRequest(fields[0], owlapi, imported, closure, reasoner,
+					Inference.parse(inferences), lang));
+		}
+		return requests;
+	}
+
+	public String getUrl() {
+		return this.url;
+	}
+
+	public boolean useOWLAPI() {
+		return this.useOWLAPI;
+	}
+
+	public boolean considerImportedOntologies() {
+		return this.considerImportedOntologies;
+	}
+
+	public boolean considerImportedClosure() {
+		return this.considerImportedClosure;
+	}
+
+	public boolean useReasoner() {
+		return this.useReasoner;
+	}
+
+	/**
+	 * @return the kinds of inferred axioms to document when the reasoner is
+	 *         used
+	 */
+	public Set<Inference> getInferences() {
+		return this.inferences;
+	}
+
+	public String getLang() {
+		return this.lang;
+	}
+
+	/**
+	 * @return the key identifying the page this request produces
+	 */
+	public String getCacheKey() {
+		return RenderCache.key(this.url, this.useOWLAPI, this.considerImportedOntologies,
+				this.considerImportedClosure, this.useReasoner, this.useReasoner ? this.inferences.toString() : "",
+				this.lang);
+	}
+
+	/**
+	 * @return the key identifying a page of the entities of a section, as
+	 *         rendered from the given source
+	 */
+	public String getFragmentKey(String sourceHash, String section, int page) {
+		return RenderCache.key(this.url + "\n" + sourceHash + "\n" + section + "\n" + page, this.useOWLAPI,
+				this.considerImportedOntologies, this.considerImportedClosure, this.useReasoner,
+				this.useReasoner ? this.inferences.toString() : "", this.lang);
+	}
+
+	/**
+	 * @return the key identifying the document the stylesheet runs on, which
+	 *         is the same in every language
+	 */
+	public String getTreeKey(String sourceHash) {
+		return RenderCache.key(this.url + "\n" + sourceHash, this.useOWLAPI, this.considerImportedOntologies,
+				this.considerImportedClosure, this.useReasoner, this.useReasoner ? this.inferences.toString() : "",
+				"");
+	}
+
+	/**
+	 * @return the options of the request as the query string of the extract
+	 *         service
+	 */
+	public String toQuery() {
+		StringBuilder query = new StringBuilder("url=").append(encode(this.url));
+		if (this.useOWLAPI) {
+			query.append("&owlapi=true");
+		}
+		if (this.considerImportedOntologies) {
+			query.append("&imported=true");
+		}
+		if (this.considerImportedClosure) {
+			query.append("&closure=true");
+		}
+		if (this.useReasoner) {
+			List<String> names = new ArrayList<String>();
+			for (Inference inference : this.inferences) {
+				names.add(inference.name().toLowerCase(Locale.ROOT));
+			}
+			query.append("&reasoner=true&inferences=").append(encode(String.join(",", names)));
+		}
+		return query.append("&lang=").append(encode(this.lang)).toString();
+	}
+
+	private static String encode(String value) {
+		return URLEncoder.encode(value, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,184 @@
+package it.essepuntato.lode;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Where a single render spent its time.
+ *
+ * The stages record their duration here as they complete, on whatever thread
+ * they run, and each duration also goes to the {@link Metrics} histogram of
+ * its stage. Once the render is over, a render slower than the configured
+ * threshold is logged with its per-stage breakdown.
+ *
+ * A {@link #untracked() untracked} trace keeps the same record for the
+ * renderer but reports nothing, for the renders made outside the service.
+ */
+public class RenderTrace {
+	private static final Logger logger = LoggerFactory.getLogger(RenderTrace.class);
+
+	private final String url;
+	private final long started = System.nanoTime();
+	private final Map<Metrics.Stage, Long> stages = new EnumMap<Metrics.Stage, Long>(Metrics.Stage.class);
+	private final AtomicBoolean finished = new AtomicBoolean(false);
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong axioms = new AtomicLong();
+	private final AtomicInteger retries = new AtomicInteger();
+	private volatile boolean failed = false;
+	private volatile boolean degraded = false;
+	private final Set<String> limits = ConcurrentHashMap.newKeySet();
+	private final boolean reporting;
+
+	public RenderTrace(String url) {
+		this(url, true);
+	}
+
+	private RenderTrace(String url, boolean reporting) {
+		this.url = url;
+		this.reporting = reporting;
+	}
+
+	/**
+	 * @return a trace that reports nothing to the {@link Metrics} or the log
+	 */
+	public static RenderTrace untracked() {
+		return new RenderTrace(null, false);
+	}
+
+	/**
+	 * Records a stage that began at the given {@link System#nanoTime()}.
+	 */
+	public void record(Metrics.Stage stage, long since) {
+		add(stage, System.nanoTime() - since);
+	}
+
+	public void add(Metrics.Stage stage, long elapsed) {
+		synchronized (this.stages) {
+			this.stages.merge(stage, elapsed, Long::sum);
+		}
+		if (this.reporting) {
+			Metrics.getInstance().observe(stage, elapsed);
+		}
+	}
+
+	public void fetched(long bytes) {
+		this.bytes.addAndGet(bytes);
+	}
+
+	public void parsed(long axioms) {
+		this.axioms.addAndGet(axioms);
+		if (this.reporting) {
+			Metrics.getInstance().parsed(axioms);
+		}
+	}
+
+	/**
+	 * Records a download that failed transiently and is going to be made
+	 * again.
+	 */
+	public void retried(Exception cause) {
+		int retries = this.retries.incrementAndGet();
+		if (this.reporting) {
+			Metrics.getInstance().retried();
+			logger.warn("Attempt {} to download {} failed, trying again: {}", retries, this.url,
+					cause.getMessage());
+		}
+	}
+
+	/**
+	 * Records the failure of the render: the error page is served.
+	 */
+	public void failed(Exception cause) {
+		this.failed = true;
+		if (this.reporting) {
+			logger.warn("Could not render {}", this.url, cause);
+		}
+	}
+
+	public boolean isFailed() {
+		return this.failed;
+	}
+
+	/**
+	 * Records that the page had to be degraded for a reason that may not hold
+	 * next time, such as the reasoner running out of time: the page is not
+	 * worth keeping.
+	 */
+	public void degraded(String notice) {
+		this.degraded = true;
+		if (this.reporting) {
+			logger.info("Degraded the render of {}: {}", this.url, notice);
+		}
+	}
+
+	public boolean isDegraded() {
+		return this.degraded;
+	}
+
+	/**
+	 * Records that a stage (owlapi, closure, reasoner) was left out because the
+	 * source is over its budget, adding the notice for the page.
+	 */
+	public void limited(String stage, List<String> notices, String notice) {
+		this.limits.add(stage);
+		notices.add(notice);
+		if (this.reporting) {
+			Metrics.getInstance().limited(stage);
+			logger.info("Limited the render of {}: {}", this.url, notice);
+		}
+	}
+
+	public boolean isLimited(String stage) {
+		return this.limits.contains(stage);
+	}
+
+	/**
+	 * Closes the trace with the outcome of the render; only the first call
+	 * counts.
+	 *
+	 * @param slowThreshold
+	 *            the seconds above which the render is logged
+	 */
+	public void finish(String outcome, int slowThreshold) {
+		if (!this.finished.compareAndSet(false, true) || !this.reporting) {
+			return;
+		}
+		long elapsed = System.nanoTime() - this.started;
+		Metrics.getInstance().rendered(outcome, elapsed);
+		if (slowThreshold > 0 && elapsed > slowThreshold * 1000000000L) {
+			logger.warn("Slow render ({}) of {} in {}: {}", outcome, this.url, seconds(elapsed), this);
+		}
+	}
+
+	/**
+	 * @return the per-stage breakdown
+	 */
+	@Override
+	public String toString() {
+		StringBuilder breakdown = new StringBuilder();
+		synchronized (this.stages) {
+			for (Map.Entry<Metrics.Stage, Long> stage : this.stages.entrySet()) {
+				breakdown.append(stage.getKey().label()).append(' ').append(seconds(stage.getValue())).append(", ");
+			}
+		}
+		int retries = this.retries.get();
+		breakdown.append(this.bytes.get()).append(" bytes fetched, ");
+		breakdown.append(this.axioms.get()).append(" axioms, ");
+		breakdown.append(retries).append(retries == 1 ? " retry" : " retries");
+		return breakdown.toString();
+	}
+
+	private static String seconds(long nanos) {
+		return String.format(Locale.ROOT, "%.3f s", nanos / 1e9);
+	}
+}
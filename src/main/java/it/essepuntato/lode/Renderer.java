@@ -0,0 +1,555 @@
+package it.essepuntato.lode;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import net.sf.saxon.om.NodeInfo;
+
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.io.StreamDocumentSource;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.AddImport;
+import org.semanticweb.owlapi.model.AddOntologyAnnotation;
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.MissingImportHandlingStrategy;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLAnnotationSubject;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLImportsDeclaration;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyID;
+import org.semanticweb.owlapi.model.OWLOntologyLoaderConfiguration;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+import com.clarkparsia.pellet.owlapiv3.PelletReasoner;
+import com.clarkparsia.pellet.owlapiv3.PelletReasonerFactory;
+
+/**
+ * The stages of the documentation pipeline that follow the download of the
+ * source: parsing with OWLAPI, reasoning with Pellet and the XSLT
+ * transformation.
+ *
+ * They do not depend on the servlet, so that they can also be run (and
+ * measured) on their own.
+ */
+public class Renderer {
+	private final LODEConfiguration conf;
+	private final RenderTrace trace;
+	private String cssLocation;
+
+	public Renderer(LODEConfiguration conf) {
+		this(conf, RenderTrace.untracked());
+	}
+
+	/**
+	 * @param trace
+	 *            where the time spent in each stage is recorded
+	 */
+	public Renderer(LODEConfiguration conf, RenderTrace trace) {
+		this.conf = conf;
+		this.trace = trace;
+		this.cssLocation = conf.getCssLocation();
+	}
+
+	/**
+	 * Changes where the pages look for their stylesheets and scripts, the
+	 * LODE service by default.
+	 */
+	public void setCssLocation(String cssLocation) {
+		this.cssLocation = cssLocation;
+	}
+
+	/**
+	 * Loads the source with OWLAPI, merges the imported axioms the options ask
+	 * for and, if requested, replaces the ontology with the inferred one.
+	 *
+	 * @return the ontology, or null if useOWLAPI is false
+	 */
+	public OWLOntology parseWithOWLAPI(URL ontologyURL, OntologySource content, boolean useOWLAPI,
+			boolean considerImportedOntologies, boolean considerImportedClosure, boolean useReasoner,
+			Set<Inference> inferences, List<String> notices) throws OWLOntologyCreationException {
+		return parseWithOWLAPI(ontologyURL, content, useOWLAPI, considerImportedOntologies, considerImportedClosure,
+				useReasoner, inferences, useOWLAPI ? prefetchImports(content) : null, notices);
+	}
+
+	/**
+	 * Loads the source with OWLAPI as above, its imports being already
+	 * downloaded.
+	 *
+	 * @param imports
+	 *            the outcome of {@link #prefetchImports(OntologySource)}
+	 */
+	public OWLOntology parseWithOWLAPI(URL ontologyURL, OntologySource content, boolean useOWLAPI,
+			boolean considerImportedOntologies, boolean considerImportedClosure, boolean useReasoner,
+			Set<Inference> inferences, ImportsCache.Closure imports, List<String> notices)
+			throws OWLOntologyCreationException {
+		OWLOntology ontology = null;
+
+		if (useOWLAPI) {
+			OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+			manager.getIRIMappers().add(ImportsCache.getInstance(this.conf));
+
+			// Imports that could not be obtained (in time) are left out of the documentation
+			OWLOntologyLoaderConfiguration configuration = manager.getOntologyLoaderConfiguration()
+					.setMissingImportHandlingStrategy(MissingImportHandlingStrategy.SILENT);
+			for (IRI unavailableImport : imports.getUnavailable()) {
+				configuration = configuration.addIgnoredImport(unavailableImport);
+			}
+			long started = System.nanoTime();
+
+			StreamDocumentSource source = new StreamDocumentSource(content.openStream(),
+					IRI.create(ontologyURL.toString()), null, content.getMimeType());
+			ontology = manager.loadOntologyFromOntologyDocument(source, configuration);
+
+			if (considerImportedClosure || considerImportedOntologies) {
+				Set<OWLOntology> setOfImportedOntologies = new HashSet<OWLOntology>();
+				if (considerImportedOntologies) {
+					setOfImportedOntologies.addAll(ontology.getDirectImports());
+				} else {
+					setOfImportedOntologies.addAll(ontology.getImportsClosure());
+				}
+				setOfImportedOntologies.remove(ontology);
+
+				Set<OWLAxiom> importedAxioms = new HashSet<OWLAxiom>();
+				for (OWLOntology importedOntology : setOfImportedOntologies) {
+					importedAxioms.addAll(importedOntology.getAxioms());
+				}
+				manager.addAxioms(ontology, importedAxioms);
+			}
+			this.trace.record(Metrics.Stage.PARSE, started);
+			this.trace.parsed(ontology.getAxiomCount());
+
+			SizeBudget budget = new SizeBudget(this.conf);
+			if (useReasoner && budget.allowsReasoner(ontology.getAxiomCount(), notices, this.trace)) {
+				boolean parallel = budget.allowsParallelReasoning(content, imports, considerImportedOntologies,
+						considerImportedClosure, inferences);
+				ontology = parseWithReasoner(manager, ontology, inferences, parallel, notices);
+			}
+		}
+
+		return ontology;
+	}
+
+	/**
+	 * Downloads the imports closure of the source in parallel, ahead of
+	 * parsing: OWLAPI itself resolves the imports one after another.
+	 */
+	public ImportsCache.Closure prefetchImports(OntologySource content) {
+		long started = System.nanoTime();
+		try {
+			return ImportsCache.getInstance(this.conf).prefetch(ImportsCache.findImports(content),
+					RenderExecutor.getInstance(this.conf)::execute, this.conf.getImportTimeout() * 1000L);
+		} finally {
+			this.trace.record(Metrics.Stage.IMPORTS, started);
+		}
+	}
+
+	/**
+	 * Replaces the ontology with the one inferred by a single Pellet reasoner.
+	 */
+	public OWLOntology parseWithReasoner(OWLOntologyManager manager, OWLOntology ontology,
+			Set<Inference> inferences, List<String> notices) {
+		return parseWithReasoner(manager, ontology, inferences, false, notices);
+	}
+
+	/**
+	 * Replaces the ontology with the one inferred by Pellet. If the reasoner
+	 * does not finish within the reasoner timeout, the asserted ontology is
+	 * returned and a notice is added for the page.
+	 *
+	 * @param parallel
+	 *            whether each family of inferences gets a reasoner of its own,
+	 *            each holding a knowledge base as large as the ontology, or a
+	 *            single reasoner generates them all one after another
+	 */
+	public OWLOntology parseWithReasoner(OWLOntologyManager manager, OWLOntology ontology,
+			Set<Inference> inferences, boolean parallel, List<String> notices) {
+		long started = System.nanoTime();
+		RenderExecutor executor = RenderExecutor.getInstance(this.conf);
+		List<PelletReasoner> reasoners = new ArrayList<PelletReasoner>();
+		List<Future<Set<OWLAxiom>>> results = new ArrayList<Future<Set<OWLAxiom>>>();
+		AtomicBoolean timedOut = new AtomicBoolean(false);
+		ScheduledFuture<?> deadline = executor.schedule(() -> {
+			synchronized (reasoners) {
+				timedOut.set(true);
+				for (PelletReasoner reasoner : reasoners) {
+					reasoner.interrupt();
+				}
+			}
+		}, this.conf.getReasonerTimeout(), TimeUnit.SECONDS);
+		try {
+			Map<Inference.Family, List<Inference>> families = new EnumMap<Inference.Family, List<Inference>>(
+					Inference.Family.class);
+			for (Inference inference : inferences) {
+				families.computeIfAbsent(inference.getFamily(), family -> new ArrayList<Inference>()).add(inference);
+			}
+			Collection<List<Inference>> groups = parallel ? families.values()
+					: Collections.singletonList(new ArrayList<Inference>(inferences));
+
+			/*
+			 * A Pellet knowledge base cannot be queried from several threads, so
+			 * in parallel each family of inferences gets a reasoner of its own.
+			 * The reasoners are created here, one at a time, and then run on the
+			 * reasoner threads. All the reasoning happens before the asserted
+			 * ontology is replaced, so that it is still intact if the deadline
+			 * expires.
+			 */
+			for (List<Inference> family : groups) {
+				PelletReasoner reasoner = PelletReasonerFactory.getInstance().createReasoner(ontology);
+				synchronized (reasoners) {
+					reasoners.add(reasoner);
+					if (timedOut.get()) {
+						reasoner.interrupt();
+					}
+				}
+				results.add(executor.reason(() -> {
+					reasoner.getKB().prepare();
+					Set<OWLAxiom> axioms = new HashSet<OWLAxiom>();
+					for (Inference inference : family) {
+						axioms.addAll(inference.newGenerator().createAxioms(manager.getOWLDataFactory(), reasoner));
+					}
+					return axioms;
+				}));
+			}
+
+			Set<OWLAxiom> inferredAxioms = new HashSet<OWLAxiom>();
+			for (Future<Set<OWLAxiom>> result : results) {
+				inferredAxioms.addAll(result.get());
+			}
+
+			OWLOntologyID id = ontology.getOntologyID();
+			Set<OWLImportsDeclaration> declarations = ontology.getImportsDeclarations();
+			Set<OWLAnnotation> annotations = ontology.getAnnotations();
+
+			/*
+			 * The annotations of the entities are not part of what the reasoner
+			 * produces: they are indexed by subject in one pass over the
+			 * asserted ontology, and carried over in one batch of changes.
+			 */
+			Map<OWLAnnotationSubject, List<OWLAnnotationAssertionAxiom>> annotationsBySubject = new HashMap<OWLAnnotationSubject, List<OWLAnnotationAssertionAxiom>>();
+			for (OWLAnnotationAssertionAxiom axiom : ontology.getAxioms(AxiomType.ANNOTATION_ASSERTION)) {
+				annotationsBySubject.computeIfAbsent(axiom.getSubject(),
+						subject -> new ArrayList<OWLAnnotationAssertionAxiom>()).add(axiom);
+			}
+
+			manager.removeOntology(ontology);
+			OWLOntology inferred = manager.createOntology(id);
+			manager.addAxioms(inferred, inferredAxioms);
+
+			List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
+			for (OWLImportsDeclaration decl : declarations) {
+				changes.add(new AddImport(inferred, decl));
+			}
+			for (OWLAnnotation ann : annotations) {
+				changes.add(new AddOntologyAnnotation(inferred, ann));
+			}
+			Set<IRI> annotated = new HashSet<IRI>();
+			for (OWLEntity aEntity : inferred.getSignature()) {
+				List<OWLAnnotationAssertionAxiom> entityAnnotations = annotationsBySubject.get(aEntity.getIRI());
+				if (entityAnnotations != null && annotated.add(aEntity.getIRI())) {
+					for (OWLAnnotationAssertionAxiom ann : entityAnnotations) {
+						changes.add(new AddAxiom(inferred, ann));
+					}
+				}
+			}
+			manager.applyChanges(changes);
+
+			return inferred;
+		} catch (OWLOntologyCreationException e) {
+			return ontology;
+		} catch (InterruptedException e) {
+			// The render itself has been abandoned
+			Thread.currentThread().interrupt();
+			return ontology;
+		} catch (ExecutionException | RuntimeException e) {
+			if (!timedOut.get()) {
+				Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+			}
+			String notice = "The reasoner did not finish within " + this.conf.getReasonerTimeout()
+					+ " seconds: this documentation shows the asserted axioms only.";
+			notices.add(notice);
+			this.trace.degraded(notice);
+			return ontology;
+		} finally {
+			this.trace.record(Metrics.Stage.REASONING, started);
+			deadline.cancel(false);
+			for (Future<Set<OWLAxiom>> result : results) {
+				result.cancel(true);
+			}
+			synchronized (reasoners) {
+				for (PelletReasoner reasoner : reasoners) {
+					reasoner.dispose();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Downloads the imports closure of the source if the request loads it
+	 * with OWLAPI, as {@link #parseTree} would.
+	 *
+	 * @return the closure, or null if the source is not loaded with OWLAPI
+	 */
+	public ImportsCache.Closure prefetchImports(RenderRequest request, OntologySource source) throws IOException {
+		if (!request.useOWLAPI()) {
+			return null;
+		}
+		if (new SizeBudget(this.conf).allowsOWLAPI(source) || !isReducible(request, source)) {
+			return prefetchImports(source);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the hash of what the documentation of a source is generated
+	 *         from: the source itself and, when it is loaded with OWLAPI, its
+	 *         imports
+	 */
+	public static String hash(OntologySource source, ImportsCache.Closure imports) {
+		String importsHash = imports == null ? "" : imports.hash();
+		return importsHash.isEmpty() ? source.hash() : RenderCache.hash(source.hash() + "\n" + importsHash);
+	}
+
+	/**
+	 * Produces the documentation page of a request from its source.
+	 */
+	public void render(RenderRequest request, OntologySource source, List<String> notices, OutputStream output)
+			throws IOException, OWLOntologyCreationException, TransformerException {
+		render(request, source, prefetchImports(request, source), notices, output);
+	}
+
+	/**
+	 * Produces the documentation page of a request from its source, whose
+	 * imports are already downloaded.
+	 *
+	 * @param imports
+	 *            the outcome of {@link #prefetchImports(RenderRequest, OntologySource)}
+	 */
+	public void render(RenderRequest request, OntologySource source, ImportsCache.Closure imports,
+			List<String> notices, OutputStream output)
+			throws IOException, OWLOntologyCreationException, TransformerException {
+		NodeInfo tree = parseTree(request, source, imports, notices);
+		applyXSLTTransformation(tree, request.getUrl(), request.getLang(), notices, this.conf.getFragmentUrl() + "?"
+				+ request.toQuery() + "&source=" + hash(source, imports), output);
+	}
+
+	/**
+	 * Parses the source of a request into the tree the stylesheet runs on,
+	 * through OWLAPI and the reasoner if requested. The tree does not depend
+	 * on the language of the request: it is taken from the {@link TreeCache}
+	 * when the same source was parsed with the same options for another
+	 * language, and it can be transformed into the page of every language.
+	 *
+	 * Sources too large for what the request asks for are documented with
+	 * less (see {@link SizeBudget}).
+	 *
+	 * @param notices
+	 *            where the reasons the tree had to be degraded are added
+	 */
+	public NodeInfo parseTree(RenderRequest request, OntologySource source, List<String> notices)
+			throws IOException, OWLOntologyCreationException, TransformerException {
+		return parseTree(request, source, prefetchImports(request, source), notices);
+	}
+
+	/**
+	 * Parses the source of a request as above, its imports being already
+	 * downloaded. The tree is kept along with the imports it was parsed with.
+	 *
+	 * @param imports
+	 *            the outcome of {@link #prefetchImports(RenderRequest, OntologySource)}
+	 */
+	public NodeInfo parseTree(RenderRequest request, OntologySource source, ImportsCache.Closure imports,
+			List<String> notices) throws IOException, OWLOntologyCreationException, TransformerException {
+		TreeCache trees = TreeCache.getInstance(this.conf);
+		String treeKey = request.getTreeKey(hash(source, imports));
+		TreeCache.Entry cached = trees.get(treeKey);
+		if (trees.isEnabled()) {
+			Metrics.getInstance().cacheLookup("tree", cached != null);
+		}
+		if (cached != null) {
+			notices.addAll(cached.getNotices());
+			return cached.getTree();
+		}
+
+		List<String> parseNotices = new ArrayList<String>();
+		RDFFormat format = RDFXMLConverter.getFormat(source, new URL(request.getUrl()));
+		SizeBudget budget = new SizeBudget(this.conf);
+		boolean reducible = format != null || "application/rdf+xml".equals(source.sniffMimeType());
+		request = budget.limit(request, source, reducible, parseNotices, this.trace);
+		if (request.useOWLAPI()) {
+			if (imports == null) {
+				imports = prefetchImports(source);
+			}
+			request = budget.limitImports(request, source, imports, parseNotices, this.trace);
+		}
+
+		StylesheetCache stylesheet = StylesheetCache.getInstance(this.conf.getXsltPath());
+		InferenceCache inferences = InferenceCache.getInstance(this.conf);
+		String inferenceKey = InferenceCache.key(hash(source, imports), request.considerImportedOntologies(),
+				request.considerImportedClosure(), request.getInferences());
+		FileInputStream inferred = request.useReasoner() ? inferences.get(inferenceKey) : null;
+		if (request.useReasoner() && inferences.isEnabled()) {
+			Metrics.getInstance().cacheLookup("inference", inferred != null);
+		}
+
+		NodeInfo tree;
+		long size;
+		long started;
+		if (inferred != null) {
+			started = System.nanoTime();
+			try (FileInputStream in = inferred) {
+				size = in.getChannel().size();
+				tree = stylesheet.buildTree(new StreamSource(in));
+			}
+		} else if (request.useOWLAPI()) {
+			OWLOntology ontology = parseWithOWLAPI(new URL(request.getUrl()), source, true,
+					request.considerImportedOntologies(), request.considerImportedClosure(), request.useReasoner(),
+					request.getInferences(), imports, parseNotices);
+			if (request.useReasoner() && !this.trace.isDegraded() && !this.trace.isLimited("reasoner")) {
+				inferences.put(inferenceKey, ontology);
+			}
+			started = System.nanoTime();
+			try (RDFXMLStream rdfxml = RDFXMLStream.open(ontology)) {
+				tree = stylesheet.buildTree(new StreamSource(rdfxml));
+				size = rdfxml.getCount();
+			}
+		} else if (format != null) {
+			RDFXMLConverter converter = convert(source, format, request.getUrl());
+			started = System.nanoTime();
+			try (RDFXMLStream rdfxml = RDFXMLStream.open(converter)) {
+				tree = stylesheet.buildTree(new StreamSource(rdfxml));
+				size = rdfxml.getCount();
+			}
+		} else {
+			started = System.nanoTime();
+			tree = stylesheet.buildTree(source.toStreamSource());
+			size = source.length();
+		}
+		this.trace.record(Metrics.Stage.TREE, started);
+
+		/*
+		 * A degraded tree is not worth keeping, as a degraded page is not; a
+		 * tree limited by the size of its source is, with its notices.
+		 */
+		if (!this.trace.isDegraded()) {
+			trees.put(treeKey, new TreeCache.Entry(tree, parseNotices, size));
+		}
+		notices.addAll(parseNotices);
+		return tree;
+	}
+
+	/*
+	 * Whether the source can be documented without OWLAPI, being in one of
+	 * the syntaxes the stylesheet or the converter read.
+	 */
+	private static boolean isReducible(RenderRequest request, OntologySource source) throws IOException {
+		return RDFXMLConverter.getFormat(source, new URL(request.getUrl())) != null
+				|| "application/rdf+xml".equals(source.sniffMimeType());
+	}
+
+	/**
+	 * Parses a Turtle, N-Triples or JSON-LD source, which takes far less
+	 * memory than loading it with OWLAPI.
+	 */
+	public RDFXMLConverter convert(OntologySource source, RDFFormat format, String baseUri) throws IOException {
+		long started = System.nanoTime();
+		try {
+			return RDFXMLConverter.parse(source, format, baseUri);
+		} finally {
+			this.trace.record(Metrics.Stage.PARSE, started);
+		}
+	}
+
+	/**
+	 * Transforms RDF/XML into the documentation page, in the given language.
+	 */
+	public void applyXSLTTransformation(Source inputSource, String ontologyUrl, String lang, List<String> notices,
+			OutputStream output) throws TransformerException {
+		applyXSLTTransformation(inputSource, ontologyUrl, lang, notices, "", output);
+	}
+
+	/**
+	 * Transforms RDF/XML into the documentation page, in the given language.
+	 *
+	 * @param fragmentUrl
+	 *            where the page can load its entity sections from, when they
+	 *            have too many entities to be rendered with it (see
+	 *            {@link FragmentServlet}); empty if it cannot
+	 */
+	public void applyXSLTTransformation(Source inputSource, String ontologyUrl, String lang, List<String> notices,
+			String fragmentUrl, OutputStream output) throws TransformerException {
+		Transformer transformer = newTransformer(ontologyUrl, lang, notices);
+		transformer.setParameter("lode-fragment-url", fragmentUrl);
+
+		long started = System.nanoTime();
+		transformer.transform(inputSource, new StreamResult(output));
+		this.trace.record(Metrics.Stage.XSLT_TRANSFORM, started);
+	}
+
+	/**
+	 * Transforms RDF/XML into a page of the entities of a section (classes,
+	 * objectproperties, dataproperties, namedindividuals,
+	 * annotationproperties) of the documentation page, as loaded on demand.
+	 */
+	public void applyFragmentTransformation(Source inputSource, String ontologyUrl, String lang, String section,
+			int page, OutputStream output) throws TransformerException {
+		Transformer transformer = newTransformer(ontologyUrl, lang, new ArrayList<String>());
+		transformer.setParameter("lode-fragment-section", section);
+		transformer.setParameter("lode-fragment-page", page);
+
+		long started = System.nanoTime();
+		transformer.transform(inputSource, new StreamResult(output));
+		this.trace.record(Metrics.Stage.XSLT_TRANSFORM, started);
+	}
+
+	private Transformer newTransformer(String ontologyUrl, String lang, List<String> notices)
+			throws TransformerException {
+		Transformer transformer = StylesheetCache.getInstance(this.conf.getXsltPath()).newTransformer();
+		transformer.setParameter("css-location", this.cssLocation);
+		transformer.setParameter("lang", lang);
+		transformer.setParameter("ontology-url", ontologyUrl);
+		transformer.setParameter("lode-extract-url", this.conf.getExtractUrl());
+		transformer.setParameter("lode-home-url", this.conf.getHomeUrl());
+		transformer.setParameter("lode-lazy-entities", this.conf.getLazyEntities());
+		transformer.setParameter("lode-notice", String.join(" ", notices));
+		transformer.setParameter("lode-page-size", Math.max(1, this.conf.getLazyPageSize()));
+		transformer.setParameter("lode-source-url", this.conf.getSourceUrl());
+		transformer.setParameter("vendor-css", this.conf.getVendorCss());
+		transformer.setParameter("vendor-name", this.conf.getVendorName());
+		transformer.setParameter("vendor-url", this.conf.getVendorUrl());
+		transformer.setParameter("webvowl", this.conf.getWebvowl());
+		return transformer;
+	}
+}
@@ -0,0 +1,69 @@
+package it.essepuntato.lode;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Coalesces concurrent computations of the same key: the first caller becomes
+ * the leader and actually does the work, later callers wait for its outcome.
+ */
+public class SingleFlight<T> {
+	private final ConcurrentMap<String, CompletableFuture<T>> calls = new ConcurrentHashMap<String, CompletableFuture<T>>();
+
+	/**
+	 * Joins the computation of the key, starting it if none is in flight.
+	 */
+	public Call join(String key) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		CompletableFuture<T> existing = this.calls.putIfAbsent(key, future);
+		if (existing != null) {
+			return new Call(key, existing, false);
+		}
+		return new Call(key, future, true);
+	}
+
+	/**
+	 * @return the number of computations in flight
+	 */
+	public int size() {
+		return this.calls.size();
+	}
+
+	public class Call {
+		private final String key;
+		private final CompletableFuture<T> future;
+		private final boolean leader;
+
+		private Call(String key, CompletableFuture<T> future, boolean leader) {
+			this.key = key;
+			this.future = future;
+			this.leader = leader;
+		}
+
+		/**
+		 * @return true if the caller has to do the work and then complete or fail
+		 *         this call
+		 */
+		public boolean isLeader() {
+			return this.leader;
+		}
+
+		/**
+		 * @return the outcome of the leader's computation
+		 */
+		public CompletableFuture<T> getFuture() {
+			return this.future;
+		}
+
+		public void complete(T result) {
+			SingleFlight.this.calls.remove(this.key, this.future);
+			this.future.complete(result);
+		}
+
+		public void fail(Throwable cause) {
+			SingleFlight.this.calls.remove(this.key, this.future);
+			this.future.completeExceptionally(cause);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package it.essepuntato.lode;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Decides which of the expensive stages of a render a source can afford:
+ * loading it with OWLAPI, merging its imports closure and running the
+ * reasoner on it.
+ *
+ * Each stage has a budget in bytes of source (see
+ * {@link LODEConfiguration#getOwlapiMaxBytes()}) and must also fit, by a rough
+ * estimate of the heap it takes, in the share of the heap of one of the
+ * owlapiRenderThreads renders that can run at the same time. A stage over
+ * budget is left out, the most expensive first, and the page says so. The
+ * imports count towards the budgets of the closure and of the reasoner, as a
+ * small ontology may import large ones. The reasoner is run if a single
+ * knowledge base fits; the families of inferences get one each, in parallel,
+ * only if they all fit. The decisions only depend on the
+ * sources and on the configuration, so the reduced pages are cached like any
+ * other.
+ */
+public class SizeBudget {
+	/*
+	 * Heap taken per byte of source, roughly: by the OWLAPI ontology, and by
+	 * Pellet on top of it.
+	 */
+	private static final int OWLAPI_HEAP_PER_BYTE = 12;
+	private static final int REASONER_HEAP_PER_BYTE = 24;
+
+	private final LODEConfiguration conf;
+	private final long heapShare;
+
+	public SizeBudget(LODEConfiguration conf) {
+		this.conf = conf;
+		this.heapShare = Runtime.getRuntime().maxMemory() / Math.max(1, conf.getOwlapiRenderThreads());
+	}
+
+	/**
+	 * Reduces the request to what its source can afford, before it is loaded.
+	 *
+	 * @param reducible
+	 *            whether the source can be documented without OWLAPI, being
+	 *            in one of the syntaxes the stylesheet or the converter read
+	 * @param notices
+	 *            where the reasons of the reductions are added
+	 * @return the request itself, or a copy of it without OWLAPI
+	 */
+	public RenderRequest limit(RenderRequest request, OntologySource source, boolean reducible, List<String> notices,
+			RenderTrace trace) {
+		if (!request.useOWLAPI()) {
+			return request;
+		}
+
+		long bytes = source.length();
+		if (reducible && !allowsOWLAPI(source)) {
+			trace.limited("owlapi", notices, "The ontology is too large (" + megabytes(bytes)
+					+ ") to be loaded with OWLAPI: this documentation is generated from its source as published, "
+					+ "without imported ontologies or inferred axioms.");
+			return new RenderRequest(request.getUrl(), false, false, false, false, request.getInferences(),
+					request.getLang());
+		}
+		return request;
+	}
+
+	/**
+	 * Checks whether the source can be loaded with OWLAPI, whatever its
+	 * imports.
+	 */
+	public boolean allowsOWLAPI(OntologySource source) {
+		long bytes = source.length();
+		return !over(bytes, this.conf.getOwlapiMaxBytes()) && bytes * OWLAPI_HEAP_PER_BYTE <= this.heapShare;
+	}
+
+	/**
+	 * Reduces the request to what its source and its imports can afford, once
+	 * the imports are downloaded: the axioms merged into the documentation and
+	 * reasoned on are those of the source and of its imports.
+	 *
+	 * @param imports
+	 *            the local copies of the imports of the source
+	 * @param notices
+	 *            where the reasons of the reductions are added
+	 * @return the request itself, or a reduced copy of it
+	 */
+	public RenderRequest limitImports(RenderRequest request, OntologySource source, ImportsCache.Closure imports,
+			List<String> notices, RenderTrace trace) {
+		boolean imported = request.considerImportedOntologies();
+		boolean closure = request.considerImportedClosure();
+		boolean reasoner = request.useReasoner();
+
+		long closureBytes = source.length() + imports.getBytes();
+		if (closure && over(closureBytes, this.conf.getClosureMaxBytes())) {
+			trace.limited("closure", notices, "The ontology and its imports closure are too large ("
+					+ megabytes(closureBytes) + ") to be merged: this documentation includes its direct imports only.");
+			closure = false;
+			imported = true;
+		}
+
+		// What is loaded, and what is merged and reasoned on
+		long loadedBytes = source.length() + imports.getBytes();
+		long bytes = source.length() + (closure ? imports.getBytes() : imported ? imports.getDirectBytes() : 0);
+		long owlapiHeap = loadedBytes * OWLAPI_HEAP_PER_BYTE;
+		long reasonerHeap = reasoner ? bytes * REASONER_HEAP_PER_BYTE : 0;
+		int knowledgeBases = reasoner
+				&& allowsParallelReasoning(source, imports, imported, closure, request.getInferences())
+						? reasoners(request.getInferences()) : 1;
+		Metrics.getInstance().estimated(owlapiHeap + reasonerHeap * knowledgeBases);
+
+		if (reasoner && (over(bytes, this.conf.getReasonerMaxBytes()) || owlapiHeap + reasonerHeap > this.heapShare)) {
+			trace.limited("reasoner", notices, "The ontology is too large (" + megabytes(bytes)
+					+ ") to run the reasoner on: this documentation shows the asserted axioms only.");
+			reasoner = false;
+		}
+
+		if (imported == request.considerImportedOntologies() && closure == request.considerImportedClosure()
+				&& reasoner == request.useReasoner()) {
+			return request;
+		}
+		return new RenderRequest(request.getUrl(), true, imported, closure, reasoner, request.getInferences(),
+				request.getLang());
+	}
+
+	/**
+	 * Checks whether the families of inferences can be generated in parallel,
+	 * each by a reasoner with a knowledge base of its own, rather than one
+	 * after another by a single reasoner: it has to be enabled, with more than
+	 * one reasoner thread, and the heap has to have room for all of them.
+	 */
+	public boolean allowsParallelReasoning(OntologySource source, ImportsCache.Closure imports, boolean imported,
+			boolean closure, Set<Inference> inferences) {
+		if (!this.conf.isParallelReasoning() || this.conf.getReasonerThreads() < 2) {
+			return false;
+		}
+		long loadedBytes = source.length() + imports.getBytes();
+		long bytes = source.length() + (closure ? imports.getBytes() : imported ? imports.getDirectBytes() : 0);
+		return loadedBytes * OWLAPI_HEAP_PER_BYTE
+				+ bytes * REASONER_HEAP_PER_BYTE * reasoners(inferences) <= this.heapShare;
+	}
+
+	private static int reasoners(Set<Inference> inferences) {
+		return Math.max(1, Inference.families(inferences).size());
+	}
+
+	/**
+	 * Checks, once the ontology is loaded, whether the reasoner can be run on
+	 * its axioms.
+	 *
+	 * @param notices
+	 *            where the reason it cannot is added
+	 */
+	public boolean allowsReasoner(int axioms, List<String> notices, RenderTrace trace) {
+		if (over(axioms, this.conf.getReasonerMaxAxioms())) {
+			trace.limited("reasoner", notices, "The ontology has too many axioms (" + axioms
+					+ ") to run the reasoner on: this documentation shows the asserted axioms only.");
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean over(long size, long budget) {
+		return budget > 0 && size > budget;
+	}
+
+	private static String megabytes(long bytes) {
+		return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024));
+	}
+}
@@ -15,19 +15,73 @@
  * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
 package it.essepuntato.lode;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
 import java.net.URL;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 public class SourceExtractor {
+	private static final int MAX_REDIRECTS = 10;
+	private static final Set<Integer> REDIRECTS = new HashSet<Integer>(Arrays.asList(
+			HttpURLConnection.HTTP_MOVED_PERM, HttpURLConnection.HTTP_MOVED_TEMP, HttpURLConnection.HTTP_SEE_OTHER,
+			307, 308));
+
+	/*
+	 * The syntax each mime type stands for, as sniffed: a Content-Type is only
+	 * overridden by sniffing when it stands for another syntax or none.
+	 */
+	private static final Map<String, String> SYNTAXES = new HashMap<String, String>();
+	static {
+		for (String mimeType : new String[] { "application/rdf+xml", "application/xml", "text/xml" }) {
+			SYNTAXES.put(mimeType, "application/rdf+xml");
+		}
+		for (String mimeType : new String[] { "text/turtle", "application/x-turtle", "application/n-triples",
+				"text/n3" }) {
+			SYNTAXES.put(mimeType, "text/turtle");
+		}
+		for (String mimeType : new String[] { "application/ld+json", "application/json" }) {
+			SYNTAXES.put(mimeType, "application/ld+json");
+		}
+	}
+
 	private List<String> mimeTypes;
+	private FetchCache cache;
+	private long maxBytes = 0;
+	private RenderTrace trace = null;
+	private int attempts = 1;
+	private long backoff = 0;
+	private int connectTimeout = 10000;
+	private int readTimeout = 30000;
+	private HostCircuitBreaker breaker = null;
+	private NegativeCache failures = null;
+	private String etag;
+	private String lastModified;
+	// Whether the last download got an answer from the server
+	private boolean answered;
 
 	public SourceExtractor() {
+		this(null);
+	}
+
+	public SourceExtractor(FetchCache cache) {
 		mimeTypes = new ArrayList<String>();
+		this.cache = cache;
 	}
 
 	public void addMimeType(String mimeType) {
@@ -44,54 +98,383 @@ public class SourceExtractor {
 		mimeTypes.remove(mimeType);
 	}
 
-	public String exec(URL url) throws IOException {
-		String result = "";
-		String ex = "\n";
+	/**
+	 * Limits the size of the sources that can be downloaded; 0 means no limit.
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
 
-		HttpURLConnection.setFollowRedirects(false);
+	/**
+	 * Records the time spent negotiating and downloading in the trace of the
+	 * render the source is for.
+	 */
+	public void setTrace(RenderTrace trace) {
+		this.trace = trace;
+	}
 
-		for (String mimeType : mimeTypes) {
-			try {
-				boolean redirect = true;
-				HttpURLConnection connection = null;
+	/**
+	 * Limits the time spent connecting to the server and waiting for each read,
+	 * in milliseconds; 0 means no limit.
+	 */
+	public void setTimeouts(int connectTimeout, int readTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Downloads a source up to the given number of times when it fails with a
+	 * transient network error (a timeout, a refused or reset connection, a 5xx
+	 * or 429 answer), waiting about backoff milliseconds before the second
+	 * attempt and twice as long before each of the next ones.
+	 */
+	public void setRetries(int attempts, long backoff) {
+		this.attempts = Math.max(1, attempts);
+		this.backoff = backoff;
+	}
+
+	/**
+	 * Fails straight away for the hosts that keep failing, and reports the
+	 * outcome of each download to the breaker.
+	 */
+	public void setCircuitBreaker(HostCircuitBreaker breaker) {
+		this.breaker = breaker;
+	}
+
+	/**
+	 * Remembers the downloads that fail for good (4xx answers, sources too
+	 * large) and fails straight away when they are requested again.
+	 */
+	public void setNegativeCache(NegativeCache failures) {
+		this.failures = failures;
+	}
+
+	/**
+	 * @return the ETag sent with the last downloaded source, if any
+	 */
+	public String getETag() {
+		return etag;
+	}
 
-				while (redirect) {
-					connection = (HttpURLConnection) url.openConnection();
-					connection.setInstanceFollowRedirects(false);
-					connection.setRequestProperty("User-Agent", "LODE extractor");
-					connection.setRequestProperty("Accept", mimeType);
+	/**
+	 * @return the Last-Modified date sent with the last downloaded source, if any
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
 
-					redirect = false;
+	public OntologySource exec(URL url) throws IOException {
+		return exec(url, null, null);
+	}
 
-					int status = connection.getResponseCode();
-					if (status != HttpURLConnection.HTTP_OK) {
-						if (status == HttpURLConnection.HTTP_MOVED_TEMP || status == HttpURLConnection.HTTP_MOVED_PERM || status == HttpURLConnection.HTTP_SEE_OTHER)
-							redirect = true;
+	/**
+	 * Downloads the source unless it is unchanged with respect to the given
+	 * validators, in which case null is returned. Without validators, a copy
+	 * kept in the fetch cache is revalidated and returned when still current.
+	 */
+	public OntologySource exec(URL url, String ifNoneMatch, String ifModifiedSince) throws IOException {
+		String failureKey = "fetch\n" + url;
+		if (this.failures != null) {
+			String failure = this.failures.get(failureKey);
+			if (this.failures.isEnabled()) {
+				Metrics.getInstance().cacheLookup("negative", failure != null);
+			}
+			if (failure != null) {
+				throw new IOException(failure);
+			}
+		}
+		if (this.breaker != null) {
+			this.breaker.check(url);
+		}
+
+		for (int attempt = 1;; attempt++) {
+			try {
+				OntologySource result = fetch(url, ifNoneMatch, ifModifiedSince);
+				if (this.breaker != null) {
+					this.breaker.succeeded(url);
+				}
+				return result;
+			} catch (TransientException e) {
+				if (this.breaker != null) {
+					this.breaker.failed(url);
+				}
+				if (attempt >= this.attempts) {
+					throw e;
+				}
+				if (this.breaker != null) {
+					this.breaker.check(url);
+				}
+				if (this.trace != null) {
+					this.trace.retried(e);
+				} else {
+					Metrics.getInstance().retried();
+				}
+				long delay = this.backoff << Math.min(attempt - 1, 16);
+				try {
+					Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting to download " + url + " again");
+				}
+			} catch (InterruptedIOException e) {
+				throw e;
+			} catch (IOException e) {
+				if (!answered) {
+					// No answer at all, as with a failed TLS handshake: the host is at fault
+					if (this.breaker != null) {
+						this.breaker.failed(url);
 					}
+					throw e;
+				}
+				// The server answered: the failure is about the source
+				if (this.breaker != null) {
+					this.breaker.succeeded(url);
+				}
+				if (this.failures != null) {
+					this.failures.put(failureKey, e.getMessage());
+				}
+				throw e;
+			}
+		}
+	}
+
+	/*
+	 * Downloads the source once, with a single request asking for all the
+	 * configured mime types. A transient failure is reported as such, so that
+	 * exec can try again.
+	 */
+	private OntologySource fetch(URL url, String ifNoneMatch, String ifModifiedSince) throws IOException {
+		etag = null;
+		lastModified = null;
+		answered = false;
+
+		long started = System.nanoTime();
+		FetchCache.Entry stored = null;
+		if (cache != null && ifNoneMatch == null && ifModifiedSince == null) {
+			stored = cache.get(url);
+			Metrics.getInstance().cacheLookup("fetch", stored != null);
+			if (stored != null) {
+				ifNoneMatch = stored.getETag();
+				ifModifiedSince = stored.getLastModified();
+			}
+		}
+
+		HttpURLConnection.setFollowRedirects(false);
+
+		try {
+			HttpURLConnection connection = open(url, accept(), ifNoneMatch, ifModifiedSince);
+			answered = true;
 
-					if (redirect) {
-						url = new URL(connection.getHeaderField("Location"));
+			/*
+			 * A server that cannot make sense of the weighted header is asked
+			 * for each mime type in turn.
+			 */
+			if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_ACCEPTABLE) {
+				discard(connection);
+				connection = null;
+				for (String mimeType : mimeTypes) {
+					HttpURLConnection candidate = open(url, mimeType, ifNoneMatch, ifModifiedSince);
+					if (candidate.getResponseCode() != HttpURLConnection.HTTP_NOT_ACCEPTABLE) {
+						connection = candidate;
+						break;
 					}
+					discard(candidate);
 				}
+				if (connection == null) {
+					throw new IOException("The source can't be downloaded in any permitted format.");
+				}
+			}
+
+			int status = connection.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED && (ifNoneMatch != null || ifModifiedSince != null)) {
+				discard(connection);
+				record(Metrics.Stage.NEGOTIATION, System.nanoTime() - started);
+				etag = header(connection, "ETag", ifNoneMatch);
+				lastModified = header(connection, "Last-Modified", ifModifiedSince);
+				if (stored != null) {
+					return stored.getContent();
+				}
+				return null;
+			}
+
+			if (status >= 400) {
+				discard(connection);
+				String message = "Server returned HTTP response code: " + status + " for URL: " + connection.getURL();
+				if (status >= 500 || status == 429) {
+					throw new TransientException(message, null);
+				}
+				throw new IOException(message);
+			}
+
+			etag = connection.getHeaderField("ETag");
+			lastModified = connection.getHeaderField("Last-Modified");
+
+			if (maxBytes > 0 && connection.getContentLengthLong() > maxBytes) {
+				// Not read, as discarding would download the whole source
+				connection.disconnect();
+				throw new IOException("The source exceeds the maximum allowed size of " + maxBytes + " bytes.");
+			}
+
+			long negotiated = System.nanoTime();
+			OntologySource result;
+			try (InputStream in = decode(connection)) {
+				result = detectSyntax(OntologySource.read(in, connection.getContentType(), maxBytes));
+			}
+			record(Metrics.Stage.NEGOTIATION, negotiated - started);
+			record(Metrics.Stage.FETCH, System.nanoTime() - negotiated);
+			Metrics.getInstance().fetched(result.length());
+			if (trace != null) {
+				trace.fetched(result.length());
+			}
+
+			if (result.isEmpty()) {
+				throw new IOException("The source can't be downloaded in any permitted format.");
+			}
+			if (cache != null) {
+				cache.put(url, new FetchCache.Entry(result, etag, lastModified));
+			}
+			return result;
+		} catch (TransientException e) {
+			throw new TransientException("The source can't be downloaded.\n# " + e.getMessage(), e);
+		} catch (InterruptedIOException e) {
+			if (Thread.currentThread().isInterrupted()) {
+				throw e;
+			}
+			// A timeout
+			throw new TransientException("The source can't be downloaded.\n# " + e.getMessage(), e);
+		} catch (ConnectException | NoRouteToHostException | UnknownHostException e) {
+			throw new TransientException("The source can't be downloaded.\n# " + e.getMessage(), e);
+		} catch (SocketException e) {
+			// A connection reset or closed by the server
+			throw new TransientException("The source can't be downloaded.\n# " + e.getMessage(), e);
+		}
+	}
+
+	/*
+	 * Sends the request, following the redirects with the same headers, and
+	 * returns the connection of the final response.
+	 */
+	private HttpURLConnection open(URL url, String accept, String ifNoneMatch, String ifModifiedSince)
+			throws IOException {
+		for (int redirects = 0;; redirects++) {
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			connection.setInstanceFollowRedirects(false);
+			connection.setConnectTimeout(connectTimeout);
+			connection.setReadTimeout(readTimeout);
+			connection.setRequestProperty("User-Agent", "LODE extractor");
+			connection.setRequestProperty("Accept", accept);
+			connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+			if (ifNoneMatch != null) {
+				connection.setRequestProperty("If-None-Match", ifNoneMatch);
+			}
+			if (ifModifiedSince != null) {
+				connection.setRequestProperty("If-Modified-Since", ifModifiedSince);
+			}
 
-				BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+			int status = connection.getResponseCode();
+			String location = connection.getHeaderField("Location");
+			if (!REDIRECTS.contains(status) || location == null) {
+				return connection;
+			}
+			discard(connection);
+			if (redirects >= MAX_REDIRECTS) {
+				throw new IOException("Too many redirects for URL: " + url);
+			}
+			url = new URL(url, location);
+		}
+	}
 
-				String line;
-				while ((line = in.readLine()) != null) {
-					result += line + "\n";
+	/*
+	 * The configured mime types as a single Accept header, each one preferred
+	 * to the ones after it and the wildcard to none.
+	 */
+	private String accept() {
+		StringBuilder accept = new StringBuilder();
+		double q = 1;
+		for (String mimeType : mimeTypes) {
+			if (accept.length() > 0) {
+				accept.append(", ");
+			}
+			accept.append(mimeType);
+			if (mimeType.equals("*/*")) {
+				accept.append(";q=0.1");
+			} else {
+				if (q < 1) {
+					accept.append(String.format(Locale.ROOT, ";q=%.1f", q));
 				}
+				q = Math.max(0.2, q - 0.1);
+			}
+		}
+		return accept.toString();
+	}
+
+	/*
+	 * Servers often send RDF with a generic or wrong Content-Type: when the
+	 * first bytes of the content clearly belong to another syntax, the source
+	 * is labelled with that one instead.
+	 */
+	private static OntologySource detectSyntax(OntologySource source) {
+		String sniffed = source.sniffMimeType();
+		String declared = source.getMimeType();
+		if (sniffed == null || (declared != null && sniffed.equals(SYNTAXES.get(declared)))) {
+			return source;
+		}
+		return source.withMimeType(sniffed);
+	}
 
+	private void record(Metrics.Stage stage, long elapsed) {
+		if (trace != null) {
+			trace.add(stage, elapsed);
+		}
+	}
+
+	private InputStream decode(HttpURLConnection connection) throws IOException {
+		String encoding = connection.getContentEncoding();
+		InputStream in = connection.getInputStream();
+		if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+			return new GZIPInputStream(in);
+		} else if ("deflate".equalsIgnoreCase(encoding)) {
+			return new InflaterInputStream(in);
+		}
+		return in;
+	}
+
+	private String header(HttpURLConnection connection, String name, String fallback) {
+		String value = connection.getHeaderField(name);
+		return value != null ? value : fallback;
+	}
+
+	/*
+	 * Reads and closes whatever body came with a response that is not going
+	 * to be used, so that the underlying connection can go back to the
+	 * keep-alive pool.
+	 */
+	private void discard(HttpURLConnection connection) {
+		try {
+			InputStream in = connection.getResponseCode() >= 400 ? connection.getErrorStream()
+					: connection.getInputStream();
+			if (in != null) {
+				byte[] buffer = new byte[8192];
+				while (in.read(buffer) != -1) {
+					// skip
+				}
 				in.close();
-				break;
-			} catch (Exception e) {
-				ex += "# " + e.getMessage() + "\n";
 			}
+		} catch (IOException e) {
+			// The connection will simply not be reused
 		}
+	}
 
-		if (result == null || result.equals("")) {
-			throw new IOException("The source can't be downloaded in any permitted format." + ex);
-		} else {
-			return result;
+	/**
+	 * A download that failed in a way that may not happen again: a timeout, a
+	 * host name that could not be resolved, a connection that could not be made
+	 * or was reset, a 5xx or 429 answer.
+	 */
+	public static class TransientException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public TransientException(String message, Throwable cause) {
+			super(message, cause);
 		}
 	}
 }
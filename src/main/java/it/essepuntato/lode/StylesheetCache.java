@@ -0,0 +1,149 @@
+package it.essepuntato.lode;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+
+import net.sf.saxon.TransformerFactoryImpl;
+import net.sf.saxon.om.NodeInfo;
+
+/**
+ * Process-wide cache of the compiled extraction stylesheet.
+ *
+ * The stylesheet (together with the modules it includes) is compiled once and
+ * shared by every request, and the label documents that live next to it
+ * (en.xml, it.xml, ...) are parsed once and handed to document() through a
+ * {@link URIResolver}. Both are rebuilt only when one of the .xsl or .xml files
+ * in the stylesheet directory changes on disk.
+ */
+public class StylesheetCache {
+
+	private static final Map<Path, StylesheetCache> instances = new ConcurrentHashMap<Path, StylesheetCache>();
+
+	private final Path xsltPath;
+	private final TransformerFactoryImpl factory;
+	private volatile Compiled compiled;
+
+	private StylesheetCache(Path xsltPath) {
+		this.xsltPath = xsltPath;
+		this.factory = new TransformerFactoryImpl();
+	}
+
+	public static StylesheetCache getInstance(String xsltPath) {
+		Path key = Path.of(xsltPath).toAbsolutePath().normalize();
+		return instances.computeIfAbsent(key, StylesheetCache::new);
+	}
+
+	/**
+	 * Returns a new transformer for the cached stylesheet, recompiling it first
+	 * if any of its files changed since the last compilation.
+	 */
+	public Transformer newTransformer() throws TransformerException {
+		Compiled current = refresh();
+		Transformer transformer = current.templates.newTransformer();
+		transformer.setURIResolver(current);
+		return transformer;
+	}
+
+	/**
+	 * Parses a document into a tree the transformers of this stylesheet can
+	 * run on any number of times.
+	 */
+	public NodeInfo buildTree(Source source) throws TransformerException {
+		return this.factory.getConfiguration().buildDocumentTree(source).getRootNode();
+	}
+
+	/**
+	 * Compiles the stylesheet and loads the label documents, unless they are
+	 * already up to date.
+	 */
+	public Compiled refresh() throws TransformerException {
+		long stamp = lastModified();
+		Compiled current = this.compiled;
+		if (current == null || current.stamp != stamp) {
+			synchronized (this) {
+				current = this.compiled;
+				if (current == null || current.stamp != stamp) {
+					long started = System.nanoTime();
+					current = compile(stamp);
+					this.compiled = current;
+					Metrics.getInstance().observe(Metrics.Stage.XSLT_COMPILE, System.nanoTime() - started);
+				}
+			}
+		}
+		return current;
+	}
+
+	private Compiled compile(long stamp) throws TransformerException {
+		File xsltFile = this.xsltPath.toFile();
+		Templates templates = this.factory.newTemplates(new StreamSource(xsltFile));
+
+		Map<String, NodeInfo> labels = new HashMap<String, NodeInfo>();
+		File[] files = xsltFile.getParentFile().listFiles((dir, name) -> name.endsWith(".xml"));
+		if (files != null) {
+			for (File file : files) {
+				try {
+					NodeInfo document = this.factory.getConfiguration()
+							.buildDocumentTree(new StreamSource(file)).getRootNode();
+					labels.put(file.toURI().toString(), document);
+				} catch (Exception e) {
+					// Not a usable document: leave it to the default resolver
+				}
+			}
+		}
+
+		return new Compiled(templates, labels, stamp);
+	}
+
+	/*
+	 * Combines the modification times of every file the transformation reads
+	 * from the stylesheet directory, so that a change to any of them is noticed.
+	 */
+	private long lastModified() {
+		long stamp = 0;
+		File[] files = this.xsltPath.toFile().getParentFile()
+				.listFiles((dir, name) -> name.endsWith(".xsl") || name.endsWith(".xml"));
+		if (files != null) {
+			for (File file : files) {
+				stamp = 31 * stamp + file.lastModified() + file.getName().hashCode();
+			}
+		}
+		return stamp;
+	}
+
+	public static class Compiled implements URIResolver {
+		private final Templates templates;
+		private final Map<String, NodeInfo> labels;
+		private final long stamp;
+
+		private Compiled(Templates templates, Map<String, NodeInfo> labels, long stamp) {
+			this.templates = templates;
+			this.labels = labels;
+			this.stamp = stamp;
+		}
+
+		public Templates getTemplates() {
+			return this.templates;
+		}
+
+		@Override
+		public Source resolve(String href, String base) throws TransformerException {
+			try {
+				URI uri = base == null ? new URI(href) : new URI(base).resolve(href);
+				return this.labels.get(new File(uri).toURI().toString());
+			} catch (Exception e) {
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,17 @@
+#!/bin/bash
+#
+# Renders a catalogue of ontologies to static pages, see BatchRenderer.
+#
+# LODE_HOME is the unpacked web application (target/LODE after mvn package).
+#
+# e.g. lode-batch.sh --threads 4 --lang en,it catalogue.txt /var/www/ontologies
+#
+LODE_HOME="${LODE_HOME:-target/LODE}"
+
+if [ ! -d "${LODE_HOME}/WEB-INF/classes" ]; then
+	echo "${LODE_HOME} is not an unpacked LODE web application, set LODE_HOME" >&2
+	exit 2
+fi
+
+exec java ${JAVA_OPTS} -cp "${LODE_HOME}/WEB-INF/classes:${LODE_HOME}/WEB-INF/lib/*" \
+	it.essepuntato.lode.BatchRenderer --webapp "${LODE_HOME}" "$@"
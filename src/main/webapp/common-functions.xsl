@@ -19,6 +19,20 @@ OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
     xmlns:xd="http://www.oxygenxml.com/ns/doc/xsl" version="2.0"
     xmlns:f="http://www.essepuntato.it/xslt/function">
     
+    <!-- The identifier of the documentation of an entity, made of its kind and
+        its IRI so that it is the same in every rendering of the ontology, and
+        in particular in the pages of entities loaded on demand. Anonymous
+        entities keep a generated one. -->
+    <xsl:function name="f:entity-id" as="xs:string">
+        <xsl:param name="element" as="element()?" />
+        <xsl:variable name="iri" select="($element/@*:about | $element/@*:ID)[1]" as="attribute()?" />
+        
+        <xsl:sequence select="
+            if (empty($element)) then ''
+            else if (exists($iri)) then concat(lower-case(local-name($element)), ':', replace(encode-for-uri($iri), '%', ':'))
+            else generate-id($element)" />
+    </xsl:function>
+    
     <xsl:function name="f:string-last-index-of" as="xs:integer*">
         <xsl:param name="source" as="xs:string" />
         <xsl:param name="pattern" as="xs:string" />
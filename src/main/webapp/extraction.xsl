@@ -38,17 +38,72 @@
 	<xsl:param name="lode-home-url" as="xs:string" select="'http://www.essepuntato.it/lode'" />
 	<xsl:param name="lode-extract-url" as="xs:string" select="'/lode/extract'" />
 	<xsl:param name="lode-source-url" as="xs:string" select="'/lode/source'" />
+	<xsl:param name="lode-notice" as="xs:string" select="''" />
 	<xsl:param name="ontology-url" as="xs:string" select="''" />
 	<xsl:param name="vendor-css" select="''" as="xs:string" />
 	<xsl:param name="vendor-name" select="''" as="xs:string" />
 	<xsl:param name="vendor-url" select="''" as="xs:string" />
 	<xsl:param name="webvowl" as="xs:string" select="''" />
+	<!-- The entity sections of large ontologies are loaded from here by the page -->
+	<xsl:param name="lode-fragment-url" as="xs:string" select="''" />
+	<xsl:param name="lode-fragment-section" as="xs:string" select="''" />
+	<xsl:param name="lode-fragment-page" as="xs:integer" select="1" />
+	<xsl:param name="lode-lazy-entities" as="xs:integer" select="0" />
+	<xsl:param name="lode-page-size" as="xs:integer" select="200" />
 
 	<xsl:variable name="def-lang" select="'en'" as="xs:string" />
 	<xsl:variable name="n" select="'\n|\r|\r\n'" />
 	<xsl:variable name="rdf" select="/rdf:RDF" as="element()" />
 	<xsl:variable name="root" select="/" as="node()" />
 
+	<!-- Entities by IRI, so that looking one up does not scan the whole document -->
+	<xsl:key name="entities" match="rdf:RDF/element()" use="@*:about | @*:ID" />
+	<xsl:key name="top-level-entities" match="/rdf:RDF/element()"
+		use="@*:about | @*:ID" />
+	<xsl:key name="subclasses" match="/rdf:RDF/owl:Class"
+		use="rdfs:subClassOf/@*:resource" />
+	<xsl:key name="members" match="/rdf:RDF/owl:NamedIndividual"
+		use="rdf:type/@*:resource" />
+	<xsl:key name="subproperties"
+		match="/rdf:RDF/owl:ObjectProperty | /rdf:RDF/owl:DatatypeProperty | /rdf:RDF/owl:AnnotationProperty"
+		use="rdfs:subPropertyOf/@*:resource" />
+	<xsl:key name="properties-by-range"
+		match="/rdf:RDF/owl:ObjectProperty | /rdf:RDF/owl:DatatypeProperty | /rdf:RDF/owl:AnnotationProperty"
+		use="rdfs:range/@*:resource" />
+	<xsl:key name="properties-by-domain"
+		match="/rdf:RDF/owl:ObjectProperty | /rdf:RDF/owl:DatatypeProperty | /rdf:RDF/owl:AnnotationProperty"
+		use="rdfs:domain/@*:resource" />
+
+	<!-- Whether the sections of the documentation have any content -->
+	<xsl:variable name="has-description"
+		select="exists(//owl:Ontology/dc:description[normalize-space() != ''])"
+		as="xs:boolean" />
+	<xsl:variable name="has-object-properties"
+		select="exists(//owl:ObjectProperty/element())" as="xs:boolean" />
+	<xsl:variable name="has-data-properties"
+		select="exists(//owl:DatatypeProperty/element())" as="xs:boolean" />
+	<xsl:variable name="has-named-individuals"
+		select="exists(//owl:NamedIndividual/element())" as="xs:boolean" />
+	<xsl:variable name="has-annotation-properties"
+		select="exists(//owl:AnnotationProperty)" as="xs:boolean" />
+
+	<!-- The entities documented in each section -->
+	<xsl:variable name="documented-classes"
+		select="/rdf:RDF/owl:Class[exists(element()) and exists(@*:about|@*:ID)]"
+		as="element()*" />
+	<xsl:variable name="documented-object-properties"
+		select="/rdf:RDF/owl:ObjectProperty[exists(element())]" as="element()*" />
+	<xsl:variable name="documented-data-properties"
+		select="/rdf:RDF/owl:DatatypeProperty[exists(element())]" as="element()*" />
+	<xsl:variable name="documented-named-individuals"
+		select="/rdf:RDF/owl:NamedIndividual[exists(element())]" as="element()*" />
+	<xsl:variable name="documented-annotation-properties"
+		select="/rdf:RDF/owl:AnnotationProperty" as="element()*" />
+	<!-- Whether the entity sections are left for the page to load a page at a time -->
+	<xsl:variable name="lazy"
+		select="$lode-fragment-url != '' and $lode-lazy-entities gt 0 and count(($documented-classes, $documented-object-properties, $documented-data-properties, $documented-named-individuals, $documented-annotation-properties)) gt $lode-lazy-entities"
+		as="xs:boolean" />
+
 	<xsl:variable name="default-labels"
 		select="document(concat($def-lang,'.xml'))" />
 	<xsl:variable name="labels"
@@ -118,16 +173,63 @@
 	</xsl:variable>
 
 	<xsl:template match="rdf:RDF">
-		<html xmlns="http://www.w3.org/1999/xhtml">
-			<xsl:choose>
-				<xsl:when test="owl:Ontology">
-					<xsl:apply-templates select="owl:Ontology" />
-				</xsl:when>
-				<xsl:otherwise>
-					<xsl:call-template name="structure" />
-				</xsl:otherwise>
-			</xsl:choose>
-		</html>
+		<xsl:choose>
+			<xsl:when test="$lode-fragment-section != ''">
+				<xsl:call-template name="get.fragment" />
+			</xsl:when>
+			<xsl:otherwise>
+				<html xmlns="http://www.w3.org/1999/xhtml">
+					<xsl:choose>
+						<xsl:when test="owl:Ontology">
+							<xsl:apply-templates select="owl:Ontology" />
+						</xsl:when>
+						<xsl:otherwise>
+							<xsl:call-template name="structure" />
+						</xsl:otherwise>
+					</xsl:choose>
+				</html>
+			</xsl:otherwise>
+		</xsl:choose>
+	</xsl:template>
+
+	<!-- A page of the entities of a section, as loaded by the documentation page -->
+	<xsl:template name="get.fragment">
+		<xsl:variable name="entities"
+			select="if ($lode-fragment-section = 'classes') then $documented-classes
+				else if ($lode-fragment-section = 'objectproperties') then $documented-object-properties
+				else if ($lode-fragment-section = 'dataproperties') then $documented-data-properties
+				else if ($lode-fragment-section = 'namedindividuals') then $documented-named-individuals
+				else $documented-annotation-properties"
+			as="element()*" />
+		<xsl:variable name="sorted" as="element()*">
+			<xsl:perform-sort select="$entities">
+				<xsl:sort select="lower-case(f:getLabel(@*:about|@*:ID))"
+					order="ascending" data-type="text" />
+			</xsl:perform-sort>
+		</xsl:variable>
+		<div>
+			<xsl:apply-templates
+				select="subsequence($sorted, ($lode-fragment-page - 1) * $lode-page-size + 1, $lode-page-size)">
+				<xsl:with-param name="type" tunnel="yes" as="xs:string"
+					select="if ($lode-fragment-section = 'classes') then 'class'
+						else if ($lode-fragment-section = 'namedindividuals') then 'individual'
+						else if ($lode-fragment-section = 'annotationproperties') then 'annotation'
+						else 'property'" />
+			</xsl:apply-templates>
+		</div>
+	</xsl:template>
+
+	<!-- Placeholders for the pages of a section, loaded by the page as they are needed -->
+	<xsl:template name="get.lazy.pages">
+		<xsl:param name="section" as="xs:string" />
+		<xsl:param name="entities" as="element()*" />
+		<xsl:for-each
+			select="1 to xs:integer(ceiling(count($entities) div $lode-page-size))">
+			<div class="fragment"
+				data-src="{$lode-fragment-url}&amp;section={$section}&amp;page={.}">
+				<img src="{$css-location}ajax-loader.gif" alt="..." />
+			</div>
+		</xsl:for-each>
 	</xsl:template>
 
 	<xsl:template name="htmlhead">
@@ -166,6 +268,83 @@
 			}
 			});
 		</script>
+		<xsl:if test="$lazy">
+			<!-- Loads the pages of the entity sections as they come into view, or
+				as soon as one of their entities is linked to. No less-than or
+				ampersand here, as they would be escaped. -->
+			<script>
+				var lodePageSize = <xsl:value-of select="$lode-page-size" />;
+				function lodeLoad(fragment, done) {
+				if (fragment.data('state') == 'loaded') {
+				if (done) { done(); }
+				return;
+				}
+				var waiting = fragment.data('waiting') || [];
+				if (done) { waiting.push(done); }
+				fragment.data('waiting', waiting);
+				if (fragment.data('state') == 'loading') { return; }
+				fragment.data('state', 'loading');
+				$.ajax({ url: fragment.attr('data-src'), dataType: 'html',
+				success: function (html) {
+				fragment.html(html);
+				fragment.find('.markdown').each(function () {
+				jQuery(this).after(marked(jQuery(this).text())).remove()});
+				fragment.data('state', 'loaded');
+				$.each(fragment.data('waiting'), function (i, callback) { callback(); });
+				fragment.removeData('waiting');
+				},
+				error: function (xhr) {
+				fragment.html(xhr.responseText || "<xsl:value-of select="f:getDescriptionLabel('fragmenterror')" />");
+				fragment.data('state', 'failed');
+				}
+				});
+				}
+				function lodeLoadVisible() {
+				var top = $(window).scrollTop() - $(window).height();
+				var bottom = $(window).scrollTop() + 2 * $(window).height();
+				$('div.fragment').each(function () {
+				var fragment = $(this);
+				var offset = fragment.offset().top;
+				if (bottom >= offset) {
+				if (offset + fragment.height() >= top) { lodeLoad(fragment); }
+				}
+				});
+				}
+				function lodeReveal(id) {
+				if (!id || document.getElementById(id)) { return false; }
+				var link = $('ul.hlist a[href="#' + id + '"]').first();
+				if (link.size() == 0) { return false; }
+				var section = link.closest('div[id]');
+				var fragments = section.children('div.fragment');
+				if (fragments.size() == 0) { return false; }
+				/* The page the table of contents points to, then the others
+				in case the fragments were generated from another version
+				of the ontology */
+				var first = Math.min(Math.floor(section.find('ul.hlist a').index(link) / lodePageSize), fragments.size() - 1);
+				var pages = [fragments.get(first)];
+				fragments.each(function (i) { if (i != first) { pages.push(this); } });
+				var next = function () {
+				var target = document.getElementById(id);
+				if (target) {
+				$.scrollTo(target);
+				window.location.hash = id;
+				} else if (pages.length != 0) {
+				lodeLoad($(pages.shift()), next);
+				}
+				};
+				next();
+				return true;
+				}
+				$(document).ready(function () {
+				$('a[href^="#"]').live('click', function (event) {
+				if (lodeReveal($(this).attr('href').substring(1))) { event.preventDefault(); }
+				});
+				$(window).bind('scroll resize', lodeLoadVisible);
+				lodeReveal(window.location.hash.substring(1));
+				lodeLoadVisible();
+				});
+			</script>
+		</xsl:if>
 	</xsl:template>
 
 	<xsl:template name="structure">
@@ -186,6 +365,11 @@
 			<xsl:call-template name="htmlhead" />
 		</head>
 		<body>
+			<xsl:if test="string-length($lode-notice) != 0">
+				<p class="notice">
+					<xsl:value-of select="$lode-notice" />
+				</p>
+			</xsl:if>
 			<div class="head">
 				<xsl:choose>
 					<xsl:when test="$titles">
@@ -554,7 +738,7 @@
 		match="element()|text()[normalize-space() = '']" />
 
 	<xsl:template match="owl:Class">
-		<div id="{generate-id()}" class="entity">
+		<div id="{f:entity-id(.)}" class="entity">
 			<xsl:call-template name="get.entity.name">
 				<xsl:with-param name="toc" select="'classes'"
 					tunnel="yes" as="xs:string" />
@@ -571,7 +755,7 @@
 	</xsl:template>
 
 	<xsl:template match="owl:NamedIndividual">
-		<div id="{generate-id()}" class="entity">
+		<div id="{f:entity-id(.)}" class="entity">
 			<xsl:call-template name="get.entity.name">
 				<xsl:with-param name="toc"
 					select="'namedindividuals'" tunnel="yes" as="xs:string" />
@@ -590,7 +774,7 @@
 
 	<xsl:template
 		match="owl:ObjectProperty | owl:DatatypeProperty | owl:AnnotationProperty">
-		<div id="{generate-id()}" class="entity">
+		<div id="{f:entity-id(.)}" class="entity">
 			<xsl:call-template name="get.entity.name">
 				<xsl:with-param name="toc"
 					select="if (self::owl:ObjectProperty) then 'objectproperties' else if (self::owl:AnnotationProperty) then 'annotationproperties' else 'dataproperties'"
@@ -654,7 +838,7 @@
 
 	<xsl:template match="element()" mode="toc">
 		<li>
-			<a href="#{generate-id()}" title="{@*:about|@*:ID}">
+			<a href="#{f:entity-id(.)}" title="{@*:about|@*:ID}">
 				<xsl:choose>
 					<xsl:when test="exists(rdfs:label)">
 						<xsl:value-of select="rdfs:label[f:isInLanguage(.)]" />
@@ -738,29 +922,29 @@
 		<xsl:param name="type" as="xs:string" />
 
 		<xsl:variable name="el"
-			select="$root//rdf:RDF/element()[(@*:about = $iri or @*:ID = $iri) and exists(element())]"
+			select="key('entities', $iri, $root)[exists(element())]"
 			as="element()*" />
 		<xsl:choose>
 			<xsl:when test="exists($el)">
 				<xsl:choose>
 					<xsl:when test="$type = 'class'">
 						<xsl:value-of
-							select="generate-id($el[local-name() = 'Class'][1])" />
+							select="f:entity-id($el[local-name() = 'Class'][1])" />
 					</xsl:when>
 					<xsl:when test="$type = 'property'">
 						<xsl:value-of
-							select="generate-id($el[local-name() = 'ObjectProperty' or local-name() = 'DatatypeProperty'][1])" />
+							select="f:entity-id($el[local-name() = 'ObjectProperty' or local-name() = 'DatatypeProperty'][1])" />
 					</xsl:when>
 					<xsl:when test="$type = 'annotation'">
 						<xsl:value-of
-							select="generate-id($el[local-name() = 'AnnotationProperty'][1])" />
+							select="f:entity-id($el[local-name() = 'AnnotationProperty'][1])" />
 					</xsl:when>
 					<xsl:when test="$type = 'individual'">
 						<xsl:value-of
-							select="generate-id($el[local-name() = 'NamedIndividual'][1])" />
+							select="f:entity-id($el[local-name() = 'NamedIndividual'][1])" />
 					</xsl:when>
 					<xsl:otherwise>
-						<xsl:value-of select="generate-id($el[1])" />
+						<xsl:value-of select="f:entity-id($el[1])" />
 					</xsl:otherwise>
 				</xsl:choose>
 			</xsl:when>
@@ -783,7 +967,7 @@
 		<xsl:param name="iri" as="xs:string" />
 
 		<xsl:variable name="node"
-			select="$root//rdf:RDF/element()[(@*:about = $iri or @*:ID = $iri) and exists(rdfs:label)][1]"
+			select="key('entities', $iri, $root)[exists(rdfs:label)][1]"
 			as="element()*" />
 		<xsl:choose>
 			<xsl:when test="exists($node/rdfs:label)">
@@ -883,7 +1067,7 @@
 
 	<xsl:template
 		match="/rdf:RDF/rdf:Description[exists(rdf:type[@*:resource = 'http://www.w3.org/2002/07/owl#AllDisjointClasses'])]">
-		<div id="{generate-id()}" class="entity">
+		<div id="{f:entity-id(.)}" class="entity">
 			<h3>
 				<xsl:value-of
 					select="f:getDescriptionLabel('disjointclasses')" />
@@ -907,7 +1091,7 @@
 
 	<xsl:template
 		match="/rdf:RDF/owl:Restriction[exists(rdfs:subClassOf)]">
-		<div id="{generate-id()}" class="entity">
+		<div id="{f:entity-id(.)}" class="entity">
 			<h3>
 				<xsl:value-of
 					select="f:getDescriptionLabel('subclassdefinition')" />
@@ -933,7 +1117,7 @@
 
 	<xsl:template
 		match="/rdf:RDF/owl:Restriction[exists(owl:equivalentClass)]">
-		<div id="{generate-id()}" class="entity">
+		<div id="{f:entity-id(.)}" class="entity">
 			<h3>
 				<xsl:value-of
 					select="f:getDescriptionLabel('equivalentdefinition')" />
@@ -967,7 +1151,7 @@
 
 	<xsl:template
 		match="/rdf:RDF/owl:Class[empty(@*:about | @*:ID) and exists(rdfs:subClassOf)]">
-		<div id="{generate-id()}" class="entity">
+		<div id="{f:entity-id(.)}" class="entity">
 			<h3>
 				<xsl:value-of
 					select="f:getDescriptionLabel('subclassdefinition')" />
@@ -994,7 +1178,7 @@
 
 	<xsl:template
 		match="/rdf:RDF/owl:Class[empty(@*:about | @*:ID) and exists(owl:equivalentClass)]">
-		<div id="{generate-id()}" class="entity">
+		<div id="{f:entity-id(.)}" class="entity">
 			<h3>
 				<xsl:value-of
 					select="f:getDescriptionLabel('equivalentdefinition')" />
@@ -1317,7 +1501,7 @@
 		<xsl:variable name="type" select="f:getType(.)"
 			as="xs:string" />
 		<xsl:variable name="punningsequence"
-			select="/rdf:RDF/element()[@*:about = $iri or @*:ID = $iri][f:getType(.) != $type]"
+			select="key('top-level-entities', $iri)[f:getType(.) != $type]"
 			as="element()*" />
 
 		<xsl:if test="$punningsequence">
@@ -1329,7 +1513,7 @@
 				<xsl:for-each select="$punningsequence">
 					<xsl:choose>
 						<xsl:when test="element()">
-							<a href="#{generate-id(.)}">
+							<a href="#{f:entity-id(.)}">
 								<xsl:value-of select="f:getType(.)" />
 							</a>
 						</xsl:when>
@@ -1378,7 +1562,7 @@
 			as="xs:string" />
 
 		<xsl:value-of
-			select="some $other in $root/rdf:RDF/element()[@*:about = $iri or @*:ID = $iri] satisfies f:getType($other) != $type" />
+			select="some $other in key('top-level-entities', $iri, $root) satisfies f:getType($other) != $type" />
 	</xsl:function>
 
 	<xsl:template name="get.individual.assertions">
@@ -2034,7 +2218,7 @@
 			</h2>
 			<ol>
 				<xsl:if
-					test="exists(//owl:Ontology/dc:description[normalize-space() != ''])">
+					test="$has-description">
 					<li>
 						<a href="#introduction">
 							<xsl:value-of
@@ -2050,7 +2234,7 @@
 						</a>
 					</li>
 				</xsl:if>
-				<xsl:if test="exists(//owl:ObjectProperty/element())">
+				<xsl:if test="$has-object-properties">
 					<li>
 						<a href="#objectproperties">
 							<xsl:value-of
@@ -2058,7 +2242,7 @@
 						</a>
 					</li>
 				</xsl:if>
-				<xsl:if test="exists(//owl:DatatypeProperty/element())">
+				<xsl:if test="$has-data-properties">
 					<li>
 						<a href="#dataproperties">
 							<xsl:value-of
@@ -2066,7 +2250,7 @@
 						</a>
 					</li>
 				</xsl:if>
-				<xsl:if test="exists(//owl:NamedIndividual/element())">
+				<xsl:if test="$has-named-individuals">
 					<li>
 						<a href="#namedindividuals">
 							<xsl:value-of
@@ -2074,7 +2258,7 @@
 						</a>
 					</li>
 				</xsl:if>
-				<xsl:if test="exists(//owl:AnnotationProperty)">
+				<xsl:if test="$has-annotation-properties">
 					<li>
 						<a href="#annotationproperties">
 							<xsl:value-of
@@ -2177,13 +2361,23 @@
 						select="f:getDescriptionLabel('classes')" />
 				</h2>
 				<xsl:call-template name="get.classes.toc" />
-				<xsl:apply-templates
-					select="/rdf:RDF/owl:Class[exists(element()) and exists(@*:about|@*:ID)]">
-					<xsl:sort select="lower-case(f:getLabel(@*:about|@*:ID))"
-						order="ascending" data-type="text" />
-					<xsl:with-param name="type" tunnel="yes"
-						as="xs:string" select="'class'" />
-				</xsl:apply-templates>
+				<xsl:choose>
+					<xsl:when test="$lazy">
+						<xsl:call-template name="get.lazy.pages">
+							<xsl:with-param name="section" select="'classes'" />
+							<xsl:with-param name="entities" select="$documented-classes" />
+						</xsl:call-template>
+					</xsl:when>
+					<xsl:otherwise>
+						<xsl:apply-templates
+							select="/rdf:RDF/owl:Class[exists(element()) and exists(@*:about|@*:ID)]">
+							<xsl:sort select="lower-case(f:getLabel(@*:about|@*:ID))"
+								order="ascending" data-type="text" />
+							<xsl:with-param name="type" tunnel="yes"
+								as="xs:string" select="'class'" />
+						</xsl:apply-templates>
+					</xsl:otherwise>
+				</xsl:choose>
 			</div>
 		</xsl:if>
 	</xsl:template>
@@ -2202,20 +2396,30 @@
 	</xsl:template>
 
 	<xsl:template name="get.namedindividuals">
-		<xsl:if test="exists(//owl:NamedIndividual/element())">
+		<xsl:if test="$has-named-individuals">
 			<div id="namedindividuals">
 				<h2>
 					<xsl:value-of
 						select="f:getDescriptionLabel('namedindividuals')" />
 				</h2>
 				<xsl:call-template name="get.namedindividuals.toc" />
-				<xsl:apply-templates
-					select="/rdf:RDF/owl:NamedIndividual[exists(element())]">
-					<xsl:sort select="lower-case(f:getLabel(@*:about|@*:ID))"
-						order="ascending" data-type="text" />
-					<xsl:with-param name="type" tunnel="yes"
-						as="xs:string" select="'individual'" />
-				</xsl:apply-templates>
+				<xsl:choose>
+					<xsl:when test="$lazy">
+						<xsl:call-template name="get.lazy.pages">
+							<xsl:with-param name="section" select="'namedindividuals'" />
+							<xsl:with-param name="entities" select="$documented-named-individuals" />
+						</xsl:call-template>
+					</xsl:when>
+					<xsl:otherwise>
+						<xsl:apply-templates
+							select="/rdf:RDF/owl:NamedIndividual[exists(element())]">
+							<xsl:sort select="lower-case(f:getLabel(@*:about|@*:ID))"
+								order="ascending" data-type="text" />
+							<xsl:with-param name="type" tunnel="yes"
+								as="xs:string" select="'individual'" />
+						</xsl:apply-templates>
+					</xsl:otherwise>
+				</xsl:choose>
 			</div>
 		</xsl:if>
 	</xsl:template>
@@ -2233,20 +2437,30 @@
 	</xsl:template>
 
 	<xsl:template name="get.objectproperties">
-		<xsl:if test="exists(//owl:ObjectProperty/element())">
+		<xsl:if test="$has-object-properties">
 			<div id="objectproperties">
 				<h2>
 					<xsl:value-of
 						select="f:getDescriptionLabel('objectproperties')" />
 				</h2>
 				<xsl:call-template name="get.objectproperties.toc" />
-				<xsl:apply-templates
-					select="/rdf:RDF/owl:ObjectProperty[exists(element())]">
-					<xsl:sort select="lower-case(f:getLabel(@*:about|@*:ID))"
-						order="ascending" data-type="text" />
-					<xsl:with-param name="type" tunnel="yes"
-						as="xs:string" select="'property'" />
-				</xsl:apply-templates>
+				<xsl:choose>
+					<xsl:when test="$lazy">
+						<xsl:call-template name="get.lazy.pages">
+							<xsl:with-param name="section" select="'objectproperties'" />
+							<xsl:with-param name="entities" select="$documented-object-properties" />
+						</xsl:call-template>
+					</xsl:when>
+					<xsl:otherwise>
+						<xsl:apply-templates
+							select="/rdf:RDF/owl:ObjectProperty[exists(element())]">
+							<xsl:sort select="lower-case(f:getLabel(@*:about|@*:ID))"
+								order="ascending" data-type="text" />
+							<xsl:with-param name="type" tunnel="yes"
+								as="xs:string" select="'property'" />
+						</xsl:apply-templates>
+					</xsl:otherwise>
+				</xsl:choose>
 			</div>
 		</xsl:if>
 	</xsl:template>
@@ -2264,7 +2478,7 @@
 	</xsl:template>
 
 	<xsl:template name="get.annotationproperties">
-		<xsl:if test="exists(//owl:AnnotationProperty)">
+		<xsl:if test="$has-annotation-properties">
 			<div id="annotationproperties">
 				<h2>
 					<xsl:value-of
@@ -2272,13 +2486,23 @@
 				</h2>
 				<xsl:call-template
 					name="get.annotationproperties.toc" />
-				<xsl:apply-templates
-					select="/rdf:RDF/owl:AnnotationProperty">
-					<xsl:sort select="lower-case(f:getLabel(@*:about|@*:ID))"
-						order="ascending" data-type="text" />
-					<xsl:with-param name="type" tunnel="yes"
-						as="xs:string" select="'annotation'" />
-				</xsl:apply-templates>
+				<xsl:choose>
+					<xsl:when test="$lazy">
+						<xsl:call-template name="get.lazy.pages">
+							<xsl:with-param name="section" select="'annotationproperties'" />
+							<xsl:with-param name="entities" select="$documented-annotation-properties" />
+						</xsl:call-template>
+					</xsl:when>
+					<xsl:otherwise>
+						<xsl:apply-templates
+							select="/rdf:RDF/owl:AnnotationProperty">
+							<xsl:sort select="lower-case(f:getLabel(@*:about|@*:ID))"
+								order="ascending" data-type="text" />
+							<xsl:with-param name="type" tunnel="yes"
+								as="xs:string" select="'annotation'" />
+						</xsl:apply-templates>
+					</xsl:otherwise>
+				</xsl:choose>
 			</div>
 		</xsl:if>
 	</xsl:template>
@@ -2296,20 +2520,30 @@
 	</xsl:template>
 
 	<xsl:template name="get.dataproperties">
-		<xsl:if test="exists(//owl:DatatypeProperty/element())">
+		<xsl:if test="$has-data-properties">
 			<div id="dataproperties">
 				<h2>
 					<xsl:value-of
 						select="f:getDescriptionLabel('dataproperties')" />
 				</h2>
 				<xsl:call-template name="get.dataproperties.toc" />
-				<xsl:apply-templates
-					select="/rdf:RDF/owl:DatatypeProperty[exists(element())]">
-					<xsl:sort select="lower-case(f:getLabel(@*:about|@*:ID))"
-						order="ascending" data-type="text" />
-					<xsl:with-param name="type" tunnel="yes"
-						as="xs:string" select="'property'" />
-				</xsl:apply-templates>
+				<xsl:choose>
+					<xsl:when test="$lazy">
+						<xsl:call-template name="get.lazy.pages">
+							<xsl:with-param name="section" select="'dataproperties'" />
+							<xsl:with-param name="entities" select="$documented-data-properties" />
+						</xsl:call-template>
+					</xsl:when>
+					<xsl:otherwise>
+						<xsl:apply-templates
+							select="/rdf:RDF/owl:DatatypeProperty[exists(element())]">
+							<xsl:sort select="lower-case(f:getLabel(@*:about|@*:ID))"
+								order="ascending" data-type="text" />
+							<xsl:with-param name="type" tunnel="yes"
+								as="xs:string" select="'property'" />
+						</xsl:apply-templates>
+					</xsl:otherwise>
+				</xsl:choose>
 			</div>
 		</xsl:if>
 	</xsl:template>
@@ -2331,7 +2565,7 @@
 		<xsl:param name="type" as="xs:string" select="''"
 			tunnel="yes" />
 		<xsl:variable name="el"
-			select="$root/rdf:RDF/element()[@*:about = $iri or @*:ID = $iri]"
+			select="key('top-level-entities', $iri, $root)"
 			as="element()*" />
 		<xsl:choose>
 			<xsl:when
@@ -2465,25 +2699,25 @@
 	<xsl:function name="f:hasSubclasses" as="xs:boolean">
 		<xsl:param name="el" as="element()" />
 		<xsl:sequence
-			select="exists($rdf/owl:Class[some $res in rdfs:subClassOf/@*:resource satisfies $res = $el/(@*:about|@*:ID)])" />
+			select="exists(key('subclasses', $el/(@*:about|@*:ID), $root))" />
 	</xsl:function>
 
 	<xsl:function name="f:hasMembers" as="xs:boolean">
 		<xsl:param name="el" as="element()" />
 		<xsl:sequence
-			select="exists($rdf/owl:NamedIndividual[some $res in rdf:type/@*:resource satisfies $res = $el/(@*:about|@*:ID)])" />
+			select="exists(key('members', $el/(@*:about|@*:ID), $root))" />
 	</xsl:function>
 
 	<xsl:function name="f:isInRange" as="xs:boolean">
 		<xsl:param name="el" as="element()" />
 		<xsl:sequence
-			select="exists($rdf/(owl:ObjectProperty|owl:DatatypeProperty|owl:AnnotationProperty)[some $res in rdfs:range/@*:resource satisfies $res = $el/(@*:about|@*:ID)])" />
+			select="exists(key('properties-by-range', $el/(@*:about|@*:ID), $root))" />
 	</xsl:function>
 
 	<xsl:function name="f:isInDomain" as="xs:boolean">
 		<xsl:param name="el" as="element()" />
 		<xsl:sequence
-			select="exists($rdf/(owl:ObjectProperty|owl:DatatypeProperty|owl:AnnotationProperty)[some $res in rdfs:domain/@*:resource satisfies $res = $el/(@*:about|@*:ID)])" />
+			select="exists(key('properties-by-domain', $el/(@*:about|@*:ID), $root))" />
 	</xsl:function>
 
 	<xsl:function name="f:hasSubproperties" as="xs:boolean">
@@ -2492,7 +2726,7 @@
 			select="if ($el/self::owl:AnnotationProperty) then 'annotation' else 'property'"
 			as="xs:string" />
 		<xsl:value-of
-			select="exists($rdf/(if ($type = 'property') then owl:DatatypeProperty | owl:ObjectProperty else owl:AnnotationProperty)[some $res in rdfs:subPropertyOf/@*:resource satisfies $res = $el/(@*:about|@*:ID)])" />
+			select="exists(key('subproperties', $el/(@*:about|@*:ID), $root)[if ($type = 'property') then self::owl:DatatypeProperty or self::owl:ObjectProperty else self::owl:AnnotationProperty])" />
 	</xsl:function>
 
 	<xsl:function name="f:getType" as="xs:string?">
@@ -2562,6 +2796,6 @@
 		<xsl:variable name="type" select="f:getType($el)"
 			as="xs:string" />
 		<xsl:value-of
-			select="exists($rdf/element()[@*:about = $iri or @*:ID = $iri][f:getType(.) != $type])" />
+			select="exists(key('top-level-entities', $iri, $root)[f:getType(.) != $type])" />
 	</xsl:function>
 </xsl:stylesheet>
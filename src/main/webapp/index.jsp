@@ -173,6 +173,12 @@ RewriteRule ^ontology$ ontology.owl [R=303]
                     When the value of this optional parameter is <strong>true</strong>, the assertions inferable from <em>ontology-url</em> using the <a href="http://clarkparsia.com/pellet">Pellet reasoner</a> will be added to the HTML description of the ontology. This parameter implicitly specifies the <em>owlapi</em> parameter. Note that, depending upon the nature of your ontology, this computationally intensive function can be very time-consuming.
                 </p>
             </dd>
+            <dt>inferences=XXX,YYY</dt>
+            <dd>
+                <p>
+                    When this optional parameter is specified together with <em>reasoner</em>, only the listed kinds of inferred axioms are added to the HTML description of the ontology, e.g. to skip the expensive ones. The kinds are <q>subclasses</q>, <q>equivalentclasses</q>, <q>disjointclasses</q>, <q>classassertions</q>, <q>propertyassertions</q>, <q>subobjectproperties</q>, <q>subdataproperties</q>, <q>equivalentobjectproperties</q>, <q>equivalentdataproperties</q> and <q>inverseobjectproperties</q>. E.g.: <q>inferences=subclasses,classassertions</q>. All of them are added by default.
+                </p>
+            </dd>
             <dt>lang=XXX</dt>
             <dd>
                 <p>
@@ -138,18 +138,21 @@ OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
     <!-- INVERSE PROPERTY: end -->
     
     <!-- GENERAL FUNCTIONS AND TEMPLATES: begin -->
+    <xsl:key name="pairs-by-about" match="element()[@*:about]" use="@*:about" />
+    <xsl:key name="pairs-by-resource" match="element()[@*:resource]" use="@*:resource" />
+    
     <xsl:function name="f:getSomething" as="attribute()*">
         <xsl:param name="doc" />
         <xsl:param name="element" as="element()" />
         <xsl:variable name="uri" select="$element/(@*:about|@*:ID)" as="attribute()"/>
-        <xsl:sequence select="$doc//((element()[$uri = @*:resource]/@*:about)|(element()[$uri = @*:about]/@*:resource))" />
+        <xsl:sequence select="key('pairs-by-resource',$uri,$doc)/@*:about | key('pairs-by-about',$uri,$doc)/@*:resource" />
     </xsl:function>
     
     <xsl:function name="f:hasSomething" as="xs:boolean">
         <xsl:param name="doc" />
         <xsl:param name="element" as="element()" />
         <xsl:variable name="uri" select="$element/(@*:about|@*:ID)" as="attribute()"/>
-        <xsl:value-of select="exists($doc//element()[$uri = @*:resource or $uri = @*:about])" />
+        <xsl:value-of select="exists(key('pairs-by-resource',$uri,$doc) | key('pairs-by-about',$uri,$doc))" />
     </xsl:function>
     
     <xsl:template name="removeDuplicates">
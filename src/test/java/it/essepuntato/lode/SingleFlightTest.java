@@ -0,0 +1,82 @@
+package it.essepuntato.lode;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class SingleFlightTest {
+
+	@Test
+	public void concurrentJoinsCoalesce() throws Exception {
+		int callers = 16;
+		SingleFlight<String> flights = new SingleFlight<String>();
+		AtomicInteger computed = new AtomicInteger();
+		CountDownLatch joined = new CountDownLatch(callers);
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(callers);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i = 0; i < callers; i++) {
+				results.add(executor.submit(() -> {
+					start.await();
+					SingleFlight<String>.Call call = flights.join("key");
+					joined.countDown();
+					if (call.isLeader()) {
+						// Keeps the call in flight until everyone has joined it
+						joined.await();
+						computed.incrementAndGet();
+						call.complete("result");
+					}
+					return call.getFuture().get(10, TimeUnit.SECONDS);
+				}));
+			}
+			start.countDown();
+			for (Future<String> result : results) {
+				assertEquals("result", result.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(1, computed.get());
+		assertEquals(0, flights.size());
+	}
+
+	@Test
+	public void failureReachesFollowers() {
+		SingleFlight<String> flights = new SingleFlight<String>();
+		SingleFlight<String>.Call leader = flights.join("key");
+		SingleFlight<String>.Call follower = flights.join("key");
+
+		assertTrue(leader.isLeader());
+		assertFalse(follower.isLeader());
+		leader.fail(new IllegalStateException());
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> follower.getFuture().get());
+		assertTrue(e.getCause() instanceof IllegalStateException);
+	}
+
+	@Test
+	public void finishedCallsAreNotJoined() {
+		SingleFlight<String> flights = new SingleFlight<String>();
+		flights.join("key").complete("first");
+
+		SingleFlight<String>.Call call = flights.join("key");
+
+		assertTrue(call.isLeader());
+		assertFalse(call.getFuture().isDone());
+	}
+}
@@ -0,0 +1,218 @@
+package it.essepuntato.lode;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Downloads from a local server that answers with a scripted sequence of
+ * status codes.
+ */
+public class SourceExtractorTest {
+	private static final byte[] ONTOLOGY = ("@prefix owl: <http://www.w3.org/2002/07/owl#> .\n"
+			+ "<http://example.org/test> a owl:Ontology .\n").getBytes(StandardCharsets.UTF_8);
+
+	private ScriptedServer server;
+	private URL url;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		this.server = new ScriptedServer();
+		this.url = new URL(this.server.getUrl("/ontology"));
+	}
+
+	@AfterEach
+	public void tearDown() {
+		this.server.stop();
+	}
+
+	@Test
+	public void notModifiedReusesTheStoredBody(@TempDir Path directory) throws IOException {
+		FetchCache cache = new FetchCache(directory.toFile(), 1 << 20);
+		this.server.script(200, 304);
+
+		OntologySource first = extractor(cache).exec(this.url);
+		OntologySource second = extractor(cache).exec(this.url);
+
+		assertEquals(2, this.server.requests.size());
+		assertNull(this.server.requests.get(0).ifNoneMatch);
+		assertEquals(ScriptedServer.ETAG, this.server.requests.get(1).ifNoneMatch);
+		assertArrayEquals(bytes(first), bytes(second));
+		assertArrayEquals(ONTOLOGY, bytes(second));
+	}
+
+	@Test
+	public void serverErrorsAreRetried() throws IOException {
+		this.server.script(503, 500, 200);
+
+		OntologySource source = extractor(null).exec(this.url);
+
+		assertEquals(3, this.server.requests.size());
+		assertArrayEquals(ONTOLOGY, bytes(source));
+	}
+
+	@Test
+	public void tooManyRequestsIsRetried() throws IOException {
+		this.server.script(429, 200);
+
+		extractor(null).exec(this.url);
+
+		assertEquals(2, this.server.requests.size());
+	}
+
+	@Test
+	public void clientErrorsAreNotRetried() {
+		this.server.script(404, 200);
+
+		IOException e = assertThrows(IOException.class, () -> extractor(null).exec(this.url));
+
+		assertFalse(e instanceof SourceExtractor.TransientException);
+		assertEquals(1, this.server.requests.size());
+	}
+
+	@Test
+	public void retriesGiveUpAfterTheLastAttempt() {
+		this.server.script(503, 503, 503, 200);
+
+		assertThrows(SourceExtractor.TransientException.class, () -> extractor(null).exec(this.url));
+
+		assertEquals(3, this.server.requests.size());
+	}
+
+	@Test
+	public void circuitOpensAfterTooManyFailures() {
+		HostCircuitBreaker breaker = new HostCircuitBreaker(3, 60000);
+		this.server.script(503, 503, 503, 200);
+
+		for (int i = 0; i < 3; i++) {
+			SourceExtractor extractor = extractor(null);
+			extractor.setRetries(1, 0);
+			extractor.setCircuitBreaker(breaker);
+			assertThrows(SourceExtractor.TransientException.class, () -> extractor.exec(this.url));
+		}
+		SourceExtractor extractor = extractor(null);
+		extractor.setCircuitBreaker(breaker);
+		IOException e = assertThrows(IOException.class, () -> extractor.exec(this.url));
+
+		assertTrue(e.getMessage().contains("has not been responding"), e.getMessage());
+		assertEquals(3, this.server.requests.size());
+	}
+
+	@Test
+	public void circuitStaysClosedWhileTheHostAnswers() throws IOException {
+		HostCircuitBreaker breaker = new HostCircuitBreaker(2, 60000);
+		this.server.script(503, 200, 503, 200);
+
+		for (int i = 0; i < 2; i++) {
+			SourceExtractor extractor = extractor(null);
+			extractor.setCircuitBreaker(breaker);
+			extractor.exec(this.url);
+		}
+
+		assertEquals(4, this.server.requests.size());
+	}
+
+	private SourceExtractor extractor(FetchCache cache) {
+		SourceExtractor extractor = new SourceExtractor(cache);
+		extractor.addMimeType("text/turtle");
+		extractor.setRetries(3, 1);
+		extractor.setTimeouts(5000, 5000);
+		return extractor;
+	}
+
+	private static byte[] bytes(OntologySource source) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		source.writeTo(out);
+		return out.toByteArray();
+	}
+
+	/*
+	 * Answers each request with the next status of the script, the ontology
+	 * coming with the 200s, and records the requests it gets.
+	 */
+	private static class ScriptedServer {
+		static final String ETAG = "\"v1\"";
+
+		final List<Request> requests = new CopyOnWriteArrayList<Request>();
+		private final Queue<Integer> script = new ConcurrentLinkedQueue<Integer>();
+		private final HttpServer server;
+
+		ScriptedServer() throws IOException {
+			this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+			this.server.createContext("/", this::handle);
+			this.server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable, "LODE scripted server");
+				thread.setDaemon(true);
+				return thread;
+			}));
+			this.server.start();
+		}
+
+		void script(Integer... statuses) {
+			for (Integer status : statuses) {
+				this.script.add(status);
+			}
+		}
+
+		String getUrl(String path) {
+			return "http://" + this.server.getAddress().getHostString() + ":" + this.server.getAddress().getPort()
+					+ path;
+		}
+
+		void stop() {
+			this.server.stop(0);
+		}
+
+		private void handle(HttpExchange exchange) throws IOException {
+			try {
+				this.requests.add(new Request(exchange.getRequestHeaders().getFirst("If-None-Match")));
+				Integer status = this.script.poll();
+				if (status == null || status != 200) {
+					exchange.sendResponseHeaders(status == null ? 500 : status, -1);
+					return;
+				}
+				exchange.getResponseHeaders().set("Content-Type", "text/turtle");
+				exchange.getResponseHeaders().set("ETag", ETAG);
+				exchange.sendResponseHeaders(200, ONTOLOGY.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(ONTOLOGY);
+				}
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	private static class Request {
+		final String ifNoneMatch;
+
+		Request(String ifNoneMatch) {
+			this.ifNoneMatch = ifNoneMatch;
+		}
+	}
+}
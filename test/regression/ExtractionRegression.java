@@ -0,0 +1,109 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.eclipse.rdf4j.rio.RDFFormat;
+
+import it.essepuntato.lode.OntologySource;
+import it.essepuntato.lode.RDFXMLConverter;
+import net.sf.saxon.TransformerFactoryImpl;
+
+/**
+ * Renders ontologies with a version of extraction.xsl and checks that the HTML
+ * it produces is byte-identical to the one produced by another version, or to
+ * the pages kept in a directory.
+ *
+ * RDF/XML inputs (.owl, .rdf) are transformed as they are, as LODE does by
+ * default; Turtle, N-Triples and JSON-LD inputs are first converted to RDF/XML
+ * the way LODE does, once, and both sides are given the same conversion.
+ * Imports are not followed, so the check runs offline.
+ *
+ * With -Dregression.update=true, the pages kept in the directory are replaced
+ * with the ones produced, instead of being compared to them.
+ *
+ * Usage: java ExtractionRegression.java BEFORE_DIR AFTER_DIR OUTPUT_DIR INPUT...
+ *        java ExtractionRegression.java --expected EXPECTED_DIR AFTER_DIR OUTPUT_DIR INPUT...
+ */
+public class ExtractionRegression {
+	// The inputs are given stable IRIs, so that the pages do not depend on where they are checked out
+	private static final String BASE = "http://lode.test/";
+
+	public static void main(String[] args) throws Exception {
+		boolean stored = args.length > 0 && args[0].equals("--expected");
+		if (stored) {
+			args = Arrays.copyOfRange(args, 1, args.length);
+		}
+		if (args.length < 4) {
+			System.err.println("Usage: ExtractionRegression [--expected] BEFORE_DIR AFTER_DIR OUTPUT_DIR INPUT...");
+			System.exit(2);
+		}
+		File before = new File(args[0]);
+		File after = new File(args[1]);
+		File output = new File(args[2]);
+		output.mkdirs();
+		boolean update = stored && Boolean.getBoolean("regression.update");
+
+		int failures = 0;
+		for (int i = 3; i < args.length; i++) {
+			File input = new File(args[i]);
+			byte[] rdf = toRDFXML(input);
+			byte[] actual = render(after, rdf, input);
+			File kept = new File(before, input.getName() + ".html");
+			if (update) {
+				before.mkdirs();
+				Files.write(kept.toPath(), actual);
+				System.out.println("updated    " + kept + " (" + actual.length + " bytes)");
+				continue;
+			}
+
+			byte[] expected = stored ? Files.readAllBytes(kept.toPath()) : render(before, rdf, input);
+			Files.write(new File(output, input.getName() + ".before.html").toPath(), expected);
+			Files.write(new File(output, input.getName() + ".after.html").toPath(), actual);
+
+			if (Arrays.equals(expected, actual)) {
+				System.out.println("identical  " + input + " (" + actual.length + " bytes)");
+			} else {
+				System.out.println("DIFFERENT  " + input + " (" + expected.length + " -> " + actual.length
+						+ " bytes, see " + output + ")");
+				failures++;
+			}
+		}
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static byte[] toRDFXML(File input) throws Exception {
+		String name = input.getName();
+		if (name.endsWith(".owl") || name.endsWith(".rdf")) {
+			return Files.readAllBytes(input.toPath());
+		}
+
+		byte[] data = Files.readAllBytes(input.toPath());
+		OntologySource source = new OntologySource(data, data.length, null);
+		RDFFormat format = RDFXMLConverter.getFormat(source, new URL(BASE + input.getPath()));
+		if (format == null) {
+			throw new IllegalArgumentException("Not a syntax LODE converts: " + input);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RDFXMLConverter.parse(source, format, BASE + input.getPath()).writeTo(out);
+		return out.toByteArray();
+	}
+
+	private static byte[] render(File stylesheets, byte[] rdf, File input) throws Exception {
+		Transformer transformer = new TransformerFactoryImpl()
+				.newTransformer(new StreamSource(new File(stylesheets, "extraction.xsl")));
+		transformer.setParameter("lang", "en");
+		transformer.setParameter("ontology-url", BASE + input.getPath());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		transformer.transform(new StreamSource(new ByteArrayInputStream(rdf), BASE + input.getPath()),
+				new StreamResult(out));
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,27 @@
+#!/bin/bash
+set -e
+
+# Checks that the stylesheets in the working tree render the test ontologies
+# to the same HTML as the ones of a previous revision (HEAD by default).
+# mvn verify checks them against the pages kept in test/regression/expected.
+#
+# Usage: test/regression/check-extraction.sh [REVISION] [INPUT...]
+
+cd "$(dirname "$0")/../.."
+
+REVISION=${1:-HEAD}
+shift || true
+if [ $# -eq 0 ]; then
+    set -- test/cpannotationschema/test.owl proms.ttl test/regression/punning.ttl
+fi
+
+WORK=$(mktemp -d)
+trap 'rm -rf "${WORK}"' EXIT
+
+# The classes are needed for the conversion of the inputs that are not RDF/XML
+mvn -q -B compile dependency:build-classpath -Dmdep.outputFile="${WORK}/classpath"
+git archive "${REVISION}" src/main/webapp | tar -x -C "${WORK}"
+
+OUTPUT=${OUTPUT_DIR:-target/extraction-regression}
+java -cp "target/classes:$(cat "${WORK}/classpath")" test/regression/ExtractionRegression.java \
+    "${WORK}/src/main/webapp" src/main/webapp "${OUTPUT}" "$@"